@@ -1,5 +1,37 @@
 package com.example.agenttest.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
 @Configuration
 public class AppConfig {
+
+    // Worker pool for the per-chunk Gemini calls of chunked class extraction
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService chunkExtractionExecutor(@Value("${diagram.chunked.parallelism:4}") int parallelism) {
+        return Executors.newFixedThreadPool(Math.max(1, parallelism));
+    }
+
+    // Background threads for speculative diagram generation after a CDC
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService diagramPrefetchExecutor(@Value("${diagram.prefetch.threads:2}") int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    // Renders the diagram of a combined CDC + diagram response while the CDC is still streaming
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService diagramRenderExecutor(@Value("${diagram.combined.render-threads:2}") int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    // Parallel rendering of the clusters of a partitioned diagram (0 = one worker per core)
+    @Bean(destroyMethod = "shutdownNow")
+    public ForkJoinPool diagramRenderPool(@Value("${diagram.partition.parallelism:0}") int parallelism) {
+        return new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
 }
@@ -1,19 +1,46 @@
 package com.example.agenttest.config;
 
+import com.example.agenttest.context.AdmissionControlInterceptor;
+import com.example.agenttest.context.GenerationContextInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration // This tells Spring Boot this is a configuration class
 public class WebConfig implements WebMvcConfigurer { // This interface provides methods to customize MVC config
 
+    private final GenerationContextInterceptor generationContextInterceptor;
+    private final AdmissionControlInterceptor admissionControlInterceptor;
+
+    @Autowired
+    public WebConfig(GenerationContextInterceptor generationContextInterceptor,
+                     AdmissionControlInterceptor admissionControlInterceptor) {
+        this.generationContextInterceptor = generationContextInterceptor;
+        this.admissionControlInterceptor = admissionControlInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Binds client id and priority headers for the Gemini call scheduler
+        registry.addInterceptor(generationContextInterceptor).addPathPatterns("/api/**");
+        // Caps concurrent generations and sheds the excess; cheap endpoints (templates, monitoring) are not limited
+        registry.addInterceptor(admissionControlInterceptor).addPathPatterns(
+                "/api/v1/cdc/generate",
+                "/api/v1/cdc/generate-with-diagram",
+                "/api/v1/diagrams/generate-from-text",
+                "/api/v1/diagrams/generate-from-text/**",
+                "/api/v1/diagrams/sessions/from-text");
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         // This method is where you define your CORS rules
 
         registry.addMapping("/api/v1/diagrams/**") // Apply CORS rules to all paths starting with /api/v1/diagrams/
                 .allowedOrigins("http://localhost:5174") // ONLY allow requests from your Vite frontend URL
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS") // Allow these HTTP methods
+                .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS") // Allow these HTTP methods
                 .allowedHeaders("*") // Allow all types of headers in the request
                 .allowCredentials(true) // If your frontend sends cookies or auth headers, this is needed
                 .maxAge(3600); // How long the browser can cache the pre-flight response (in seconds)
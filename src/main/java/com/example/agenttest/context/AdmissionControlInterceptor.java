@@ -0,0 +1,65 @@
+package com.example.agenttest.context;
+
+import com.example.agenttest.service.AdmissionLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+
+/**
+ * Admits generation requests through the {@link AdmissionLimiter}, answering the ones it sheds with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header instead of letting them queue in Tomcat.
+ * The wait for a slot never outlasts the request deadline bound by {@link GenerationContextInterceptor}.
+ * Response times only feed the limit when the request called Gemini.
+ */
+@Component
+public class AdmissionControlInterceptor implements HandlerInterceptor {
+
+    private static final String ADMITTED_AT = AdmissionControlInterceptor.class.getName() + ".admittedAt";
+    private static final String IN_FLIGHT = AdmissionControlInterceptor.class.getName() + ".inFlight";
+    private static final String CONTEXT = AdmissionControlInterceptor.class.getName() + ".context";
+
+    private final AdmissionLimiter admissionLimiter;
+
+    @Autowired
+    public AdmissionControlInterceptor(AdmissionLimiter admissionLimiter) {
+        this.admissionLimiter = admissionLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!admissionLimiter.isEnabled() || CorsUtils.isPreFlightRequest(request)) return true;
+
+        GenerationContext context = GenerationContext.current();
+        int inFlight = admissionLimiter.tryAcquire(context.remainingNanos());
+        if (inFlight < 0) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admissionLimiter.retryAfterSeconds()));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write("{\"message\":\"Server busy, please retry later.\"}");
+            return false;
+        }
+        request.setAttribute(ADMITTED_AT, System.nanoTime());
+        request.setAttribute(IN_FLIGHT, inFlight);
+        request.setAttribute(CONTEXT, context);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object admittedAt = request.getAttribute(ADMITTED_AT);
+        if (admittedAt == null) return;
+        request.removeAttribute(ADMITTED_AT);
+        GenerationContext context = (GenerationContext) request.getAttribute(CONTEXT);
+        admissionLimiter.release(System.nanoTime() - (Long) admittedAt, (Integer) request.getAttribute(IN_FLIGHT),
+                response.getStatus() == HttpStatus.GATEWAY_TIMEOUT.value(), context.hasCalledUpstream());
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.agenttest.context;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Request factory that bounds connect and read timeouts of each upstream call by the remaining budget of the
+ * current {@link GenerationContext}, so a call is aborted once its request deadline has passed.
+ */
+public class DeadlineAwareRequestFactory extends SimpleClientHttpRequestFactory {
+
+    @Override
+    protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+        super.prepareConnection(connection, httpMethod);
+        GenerationContext context = GenerationContext.current();
+        if (context.hasDeadline()) {
+            // Rounded up so the timeout never fires before the deadline; a timeout of 0 means "infinite"
+            // for HttpURLConnection, so never go below 1 ms
+            int remainingMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    (context.remainingNanos() + 999_999) / 1_000_000));
+            connection.setConnectTimeout(remainingMillis);
+            connection.setReadTimeout(remainingMillis);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.agenttest.context;
+
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-request information that services need when calling Gemini, such as who the caller is, how urgent
+ * the call is and by when the result is still useful. It is bound to the request thread by {@link GenerationContextInterceptor} and must be
+ * re-bound with {@link #callWith} when work is handed to another thread.
+ */
+public final class GenerationContext {
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+    public static final String PRIORITY_HEADER = "X-Priority";
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final GenerationContext DEFAULT = new GenerationContext("internal", Priority.INTERACTIVE, NO_DEADLINE);
+    private static final ThreadLocal<GenerationContext> CURRENT = new ThreadLocal<>();
+
+    private final String clientId;
+    private volatile Priority priority; // only ever raised, see raisePriority
+    private volatile boolean raised;
+    private volatile boolean calledUpstream;
+    private final long deadlineNanos; // System.nanoTime() based, or NO_DEADLINE
+
+    public GenerationContext(String clientId, Priority priority, long deadlineNanos) {
+        this.clientId = clientId;
+        this.priority = priority;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public String getClientId() { return clientId; }
+    public Priority getPriority() { return priority; }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != NO_DEADLINE;
+    }
+
+    /**
+     * Remaining budget in nanoseconds, {@code Long.MAX_VALUE} without deadline, and zero or less once expired.
+     */
+    public long remainingNanos() {
+        return hasDeadline() ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Raises the priority of the work running under this context, e.g. a background call a user now waits for.
+     * Calls already queued in the scheduler are moved by {@link com.example.agenttest.service.GeminiCallScheduler#promote}.
+     */
+    public synchronized void raisePriority(Priority priority) {
+        if (priority.ordinal() < this.priority.ordinal()) {
+            this.priority = priority;
+            this.raised = true;
+        }
+    }
+
+    public boolean isRaised() {
+        return raised;
+    }
+
+    /**
+     * Records that a Gemini call was sent for this request, see {@link #hasCalledUpstream}.
+     */
+    public void markCalledUpstream() {
+        calledUpstream = true;
+    }
+
+    /**
+     * Whether the request got as far as calling Gemini, as opposed to being answered from a cache,
+     * rejected as invalid or failed fast while the circuit was open.
+     */
+    public boolean hasCalledUpstream() {
+        return calledUpstream;
+    }
+
+    public GenerationContext withPriority(Priority priority) {
+        return new GenerationContext(clientId, priority, deadlineNanos);
+    }
+
+    public static GenerationContext current() {
+        GenerationContext context = CURRENT.get();
+        return context != null ? context : DEFAULT;
+    }
+
+    static void set(GenerationContext context) {
+        CURRENT.set(context);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Runs the action with the given context bound to the current thread, restoring the previous one afterwards.
+     */
+    public static <T> T callWith(GenerationContext context, Supplier<T> action) {
+        GenerationContext previous = CURRENT.get();
+        CURRENT.set(context);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) CURRENT.set(previous); else CURRENT.remove();
+        }
+    }
+}
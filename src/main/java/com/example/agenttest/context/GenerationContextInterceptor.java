@@ -0,0 +1,44 @@
+package com.example.agenttest.context;
+
+import com.example.agenttest.service.DeadlineService;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Binds a {@link GenerationContext} built from the request headers to the request thread.
+ * Callers without {@code X-Client-Id} are identified by their remote address, and callers without
+ * {@code X-Priority} are treated as interactive. The request deadline comes from {@code X-Request-Timeout-Ms}
+ * or the server default.
+ */
+@Component
+public class GenerationContextInterceptor implements HandlerInterceptor {
+
+    private final DeadlineService deadlineService;
+
+    @Autowired
+    public GenerationContextInterceptor(DeadlineService deadlineService) {
+        this.deadlineService = deadlineService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String clientId = request.getHeader(GenerationContext.CLIENT_ID_HEADER);
+        if (!StringUtils.hasText(clientId)) {
+            clientId = request.getRemoteAddr();
+        }
+        GenerationContext.set(new GenerationContext(clientId.trim(),
+                Priority.parse(request.getHeader(GenerationContext.PRIORITY_HEADER)),
+                deadlineService.deadlineFor(request.getHeader(GenerationContext.TIMEOUT_HEADER))));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        GenerationContext.clear();
+    }
+}
@@ -2,8 +2,15 @@ package com.example.agenttest.controller;
 
 import com.example.agenttest.dto.CDCRequest;
 import com.example.agenttest.dto.CDCResponse;
+import com.example.agenttest.dto.CDCWithDiagramResponse;
+import com.example.agenttest.exception.CircuitOpenException;
+import com.example.agenttest.exception.DeadlineExceededException;
 import com.example.agenttest.exception.GenerationException;
 import com.example.agenttest.service.CahierDeChargeService;
+import com.example.agenttest.service.CombinedGenerationService;
+import com.example.agenttest.service.CombinedGenerationService.CombinedResult;
+import com.example.agenttest.service.NearDuplicateService;
+import com.example.agenttest.service.StaleResultStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,14 +25,31 @@ public class CahierDeChargeController {
 
     private static final Logger logger = LoggerFactory.getLogger(CahierDeChargeController.class);
     private final CahierDeChargeService cdcService;
+    private final StaleResultStore staleResultStore;
+    private final NearDuplicateService nearDuplicateService;
+    private final CombinedGenerationService combinedGenerationService;
 
     @Autowired
-    public CahierDeChargeController(CahierDeChargeService cdcService) {
+    public CahierDeChargeController(CahierDeChargeService cdcService, StaleResultStore staleResultStore,
+                                    NearDuplicateService nearDuplicateService,
+                                    CombinedGenerationService combinedGenerationService) {
         this.cdcService = cdcService;
+        this.staleResultStore = staleResultStore;
+        this.nearDuplicateService = nearDuplicateService;
+        this.combinedGenerationService = combinedGenerationService;
     }
 
     @PostMapping("/generate")
     public ResponseEntity<CDCResponse> generateCDC(@RequestBody CDCRequest request) {
+        // Réutilisation d'un CDC déjà généré pour une description quasi identique
+        var similar = nearDuplicateService.findSimilar("cdc", request.getDescription());
+        if (similar.isPresent()) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(new CDCResponse(similar.get().value(), String.format(
+                            "CDC réutilisé depuis une demande similaire (similarité %.0f%%)", similar.get().similarity() * 100)));
+        }
+
         try {
             String generatedCDC = cdcService.generateCahierDeCharge(request.getDescription());
 
@@ -33,17 +57,77 @@ public class CahierDeChargeController {
             if(generatedCDC == null || generatedCDC.isBlank()) {
                 throw new GenerationException("Le document généré est vide");
             }
+            staleResultStore.put("cdc", request.getDescription(), generatedCDC);
+            nearDuplicateService.remember("cdc", request.getDescription(), generatedCDC);
 
             return ResponseEntity.ok()
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(new CDCResponse(generatedCDC, "CDC généré avec succès"));
 
         } catch (GenerationException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                logger.warn("Génération du CDC abandonnée : délai de la requête dépassé");
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(new CDCResponse(null, "Erreur: délai de la requête dépassé"));
+            }
+            if (CircuitOpenException.isCause(e)) {
+                // Service IA indisponible : on sert le dernier résultat connu pour la même description
+                var stale = staleResultStore.get("cdc", request.getDescription());
+                if (stale.isPresent()) {
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(new CDCResponse(stale.get().value(),
+                                    "[STALE] Service IA indisponible, CDC servi depuis le cache (généré le " + stale.get().storedAt() + ")"));
+                }
+            }
             logger.error("Erreur de génération: {}", e.getMessage());
             return ResponseEntity.internalServerError()
                     .body(new CDCResponse(null, "Erreur: " + e.getMessage()));
         }
     }
+
+    // CDC et diagramme de classes en un seul appel Gemini (réponse streamée, rendu du diagramme en parallèle)
+    @PostMapping("/generate-with-diagram")
+    public ResponseEntity<CDCWithDiagramResponse> generateCDCWithDiagram(@RequestBody CDCRequest request) {
+        try {
+            CombinedResult result = combinedGenerationService.generate(request.getDescription());
+            staleResultStore.put("cdc", request.getDescription(), result.document());
+            nearDuplicateService.remember("cdc", request.getDescription(), result.document());
+
+            String message = "CDC et diagramme générés avec succès";
+            if (result.diagramSvg() != null) {
+                staleResultStore.put("diagram", request.getDescription(), result.diagramSvg());
+                nearDuplicateService.remember("diagram", request.getDescription(), result.diagramSvg());
+            } else {
+                message = "CDC généré, diagramme indisponible : " + result.diagramError();
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(new CDCWithDiagramResponse(result.document(), result.plantUmlSource(), result.diagramSvg(), message));
+
+        } catch (GenerationException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                logger.warn("Génération combinée abandonnée : délai de la requête dépassé");
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(new CDCWithDiagramResponse(null, null, null, "Erreur: délai de la requête dépassé"));
+            }
+            if (CircuitOpenException.isCause(e)) {
+                var staleCdc = staleResultStore.get("cdc", request.getDescription());
+                if (staleCdc.isPresent()) {
+                    String staleSvg = staleResultStore.get("diagram", request.getDescription())
+                            .map(StaleResultStore.StoredResult::value).orElse(null);
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .body(new CDCWithDiagramResponse(staleCdc.get().value(), null, staleSvg,
+                                    "[STALE] Service IA indisponible, résultat servi depuis le cache (généré le " + staleCdc.get().storedAt() + ")"));
+                }
+            }
+            logger.error("Erreur de génération combinée: {}", e.getMessage());
+            return ResponseEntity.internalServerError()
+                    .body(new CDCWithDiagramResponse(null, null, null, "Erreur: " + e.getMessage()));
+        }
+    }
+
     // Endpoint supplémentaire pour les templates
     @GetMapping("/template")
     public ResponseEntity<CDCResponse> getCDCTemplate() {
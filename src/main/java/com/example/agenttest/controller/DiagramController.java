@@ -1,17 +1,23 @@
 package com.example.agenttest.controller;
 
+import com.example.agenttest.dto.PartitionedDiagramResponse;
 import com.example.agenttest.dto.PlantUMLResponse;
 import com.example.agenttest.dto.TextExplanationRequest;
+import com.example.agenttest.exception.CircuitOpenException;
+import com.example.agenttest.exception.DeadlineExceededException;
 import com.example.agenttest.exception.GeminiApiException;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.service.ChunkedExtractionService;
+import com.example.agenttest.service.DiagramPartitionService;
+import com.example.agenttest.service.DiagramPrefetchService;
+import com.example.agenttest.service.DiagramRenderService;
 import com.example.agenttest.service.GeminiService;
+import com.example.agenttest.service.NearDuplicateService;
+import com.example.agenttest.service.PlantUMLGeneratorService;
+import com.example.agenttest.service.StaleResultStore;
 // Removed: import com.fasterxml.jackson.databind.JsonNode;
 // Removed: import com.fasterxml.jackson.databind.ObjectMapper;
 
-// Correct PlantUML imports
-import net.sourceforge.plantuml.FileFormat;
-import net.sourceforge.plantuml.FileFormatOption;
-import net.sourceforge.plantuml.SourceStringReader;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,8 +28,8 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,6 +39,13 @@ public class DiagramController {
 
     private static final Logger logger = LoggerFactory.getLogger(DiagramController.class);
     private final GeminiService geminiService;
+    private final DiagramRenderService renderService;
+    private final ChunkedExtractionService chunkedExtractionService;
+    private final PlantUMLGeneratorService plantUMLGenerator;
+    private final StaleResultStore staleResultStore;
+    private final NearDuplicateService nearDuplicateService;
+    private final DiagramPrefetchService diagramPrefetchService;
+    private final DiagramPartitionService diagramPartitionService;
     // Removed: private final ObjectMapper objectMapper; // No longer needed as we assume direct PlantUML
 
     // Pattern to extract PlantUML code blocks - supports both with and without markdown fences
@@ -41,8 +54,21 @@ public class DiagramController {
             Pattern.DOTALL);
 
     @Autowired
-    public DiagramController(GeminiService geminiService /* Removed: , ObjectMapper objectMapper */) {
+    public DiagramController(GeminiService geminiService, DiagramRenderService renderService,
+                             ChunkedExtractionService chunkedExtractionService,
+                             PlantUMLGeneratorService plantUMLGenerator,
+                             StaleResultStore staleResultStore,
+                             NearDuplicateService nearDuplicateService,
+                             DiagramPrefetchService diagramPrefetchService,
+                             DiagramPartitionService diagramPartitionService /* Removed: , ObjectMapper objectMapper */) {
         this.geminiService = geminiService;
+        this.renderService = renderService;
+        this.chunkedExtractionService = chunkedExtractionService;
+        this.plantUMLGenerator = plantUMLGenerator;
+        this.staleResultStore = staleResultStore;
+        this.nearDuplicateService = nearDuplicateService;
+        this.diagramPrefetchService = diagramPrefetchService;
+        this.diagramPartitionService = diagramPartitionService;
         // Removed: this.objectMapper = objectMapper;
     }
 
@@ -53,9 +79,18 @@ public class DiagramController {
             return ResponseEntity.badRequest().body(new PlantUMLResponse(null, "Text explanation cannot be empty."));
         }
 
+        // Reuse the diagram of a near-identical earlier request instead of generating it again
+        var similar = nearDuplicateService.findSimilar("diagram", request.getText());
+        if (similar.isPresent()) {
+            return ResponseEntity.ok(new PlantUMLResponse(similar.get().value(), String.format(
+                    "Diagram reused from a similar request (similarity %.0f%%).", similar.get().similarity() * 100)));
+        }
+
         try {
             logger.info("Received request to generate diagram from text.");
-            String geminiOutput = geminiService.generateCahierDeCharge(request.getText());
+            // Served from a speculative prefetch started after the CDC for the same text, when there is one
+            String geminiOutput = diagramPrefetchService.claim(request.getText())
+                    .orElseGet(() -> geminiService.generateCahierDeCharge(request.getText()));
 
             if (geminiOutput == null || geminiOutput.isBlank()) {
                 logger.error("Gemini service returned empty output.");
@@ -74,11 +109,26 @@ public class DiagramController {
             }
 
             // Generate SVG from PlantUML source
-            String svgDiagram = generateSvgFromPlantUML(plantUmlSource);
+            String svgDiagram = renderService.renderSvg(plantUmlSource);
+            staleResultStore.put("diagram", request.getText(), svgDiagram);
+            nearDuplicateService.remember("diagram", request.getText(), svgDiagram);
 
             return ResponseEntity.ok(new PlantUMLResponse(svgDiagram, "Diagram generated successfully."));
 
+        } catch (DeadlineExceededException e) {
+            return deadlineExceeded(e);
         } catch (GeminiApiException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                return deadlineExceeded(e);
+            }
+            if (CircuitOpenException.isCause(e)) {
+                // AI service is down: serve the last good diagram for the same text, if any
+                var stale = staleResultStore.get("diagram", request.getText());
+                if (stale.isPresent()) {
+                    return ResponseEntity.ok(new PlantUMLResponse(stale.get().value(),
+                            "[STALE] AI service unavailable, diagram served from cache (generated " + stale.get().storedAt() + ")."));
+                }
+            }
             logger.error("Gemini API error: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new PlantUMLResponse(null, "Error communicating with AI service: " + e.getMessage()));
@@ -99,6 +149,107 @@ public class DiagramController {
         }
     }
 
+    /**
+     * Chunked mode for large requirement documents: the text is split at paragraph boundaries,
+     * each chunk's class model is extracted in parallel, and the merged model is rendered once.
+     */
+    @PostMapping("/generate-from-text/chunked")
+    public ResponseEntity<PlantUMLResponse> generateDiagramFromLargeText(@RequestBody TextExplanationRequest request) {
+        if (request == null || request.getText() == null || request.getText().isBlank()) {
+            logger.warn("Received empty text explanation request.");
+            return ResponseEntity.badRequest().body(new PlantUMLResponse(null, "Text explanation cannot be empty."));
+        }
+
+        try {
+            List<String> chunks = chunkedExtractionService.split(request.getText());
+            logger.info("Received request to generate diagram from large text ({} chunks).", chunks.size());
+            GeminiResponse model = chunkedExtractionService.extractAndMerge(chunks);
+
+            String plantUmlSource = plantUMLGenerator.generatePlantUML(model);
+            String svgDiagram = renderService.renderSvg(plantUmlSource);
+
+            return ResponseEntity.ok(new PlantUMLResponse(svgDiagram,
+                    "Diagram generated successfully from " + chunks.size() + " chunk(s)."));
+
+        } catch (DeadlineExceededException e) {
+            return deadlineExceeded(e);
+        } catch (GeminiApiException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                return deadlineExceeded(e);
+            }
+            logger.error("Gemini API error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new PlantUMLResponse(null, "Error communicating with AI service: " + e.getMessage()));
+        } catch (IOException e) {
+            logger.error("Error generating diagram: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new PlantUMLResponse(null, "Failed to generate diagram."));
+        }
+    }
+
+    /**
+     * Partitioned mode for very large models: the class model is extracted as in chunked mode, split into
+     * clusters of connected classes, and every cluster is rendered as its own diagram in parallel,
+     * together with an overview of the relationships between clusters.
+     */
+    @PostMapping("/generate-from-text/partitioned")
+    public ResponseEntity<PartitionedDiagramResponse> generatePartitionedDiagramFromText(@RequestBody TextExplanationRequest request) {
+        if (request == null || request.getText() == null || request.getText().isBlank()) {
+            logger.warn("Received empty text explanation request.");
+            return ResponseEntity.badRequest().body(new PartitionedDiagramResponse(null, null, 0, "Text explanation cannot be empty."));
+        }
+
+        try {
+            List<String> chunks = chunkedExtractionService.split(request.getText());
+            logger.info("Received request to generate partitioned diagram from text ({} chunks).", chunks.size());
+            return renderPartitioned(chunkedExtractionService.extractAndMerge(chunks));
+        } catch (DeadlineExceededException e) {
+            return partitionedDeadlineExceeded(e);
+        } catch (GeminiApiException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                return partitionedDeadlineExceeded(e);
+            }
+            logger.error("Gemini API error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new PartitionedDiagramResponse(null, null, 0, "Error communicating with AI service: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Renders an already extracted class model in partitioned mode, without calling the AI service.
+     */
+    @PostMapping("/render/partitioned")
+    public ResponseEntity<PartitionedDiagramResponse> renderPartitionedModel(@RequestBody GeminiResponse model) {
+        if (model == null || model.getClasses() == null || model.getClasses().isEmpty()) {
+            return ResponseEntity.badRequest().body(new PartitionedDiagramResponse(null, null, 0, "Class model cannot be empty."));
+        }
+        return renderPartitioned(model);
+    }
+
+    private ResponseEntity<PartitionedDiagramResponse> renderPartitioned(GeminiResponse model) {
+        try {
+            return ResponseEntity.ok(diagramPartitionService.renderPartitioned(model));
+        } catch (DeadlineExceededException e) {
+            return partitionedDeadlineExceeded(e);
+        } catch (IOException e) {
+            logger.error("Error generating partitioned diagram: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new PartitionedDiagramResponse(null, null, 0, "Failed to generate diagram."));
+        }
+    }
+
+    private ResponseEntity<PartitionedDiagramResponse> partitionedDeadlineExceeded(Exception e) {
+        logger.warn("Partitioned diagram generation abandoned: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(new PartitionedDiagramResponse(null, null, 0, "Request deadline exceeded."));
+    }
+
+    private ResponseEntity<PlantUMLResponse> deadlineExceeded(Exception e) {
+        logger.warn("Diagram generation abandoned: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(new PlantUMLResponse(null, "Request deadline exceeded."));
+    }
+
     /**
      * Extract PlantUML source code from Gemini output.
      * Assumes Gemini always returns PlantUML code.
@@ -132,22 +283,4 @@ public class DiagramController {
     // private String extractPlantUMLSource(String geminiJsonOutput) throws IOException { ... }
     // private String findPlantUMLSourceInJson(JsonNode node) { ... }
     // private boolean isPotentialPlantUMLSource(String text) { ... }
-
-    /**
-     * Generates SVG from PlantUML source
-     *
-     * @param plantUmlSource PlantUML source code
-     * @return SVG string representation
-     * @throws IOException if SVG generation fails
-     */
-    private String generateSvgFromPlantUML(String plantUmlSource) throws IOException {
-        SourceStringReader reader = new SourceStringReader(plantUmlSource);
-        final ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-        // Write the first image to "os"
-        // We specify FileFormat.SVG for direct SVG output
-        reader.outputImage(os, new FileFormatOption(FileFormat.SVG));
-
-        return os.toString();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package com.example.agenttest.controller;
+
+import com.example.agenttest.dto.TextExplanationRequest;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.session.DiagramPatchRequest;
+import com.example.agenttest.dto.session.DiagramSessionResponse;
+import com.example.agenttest.exception.DeadlineExceededException;
+import com.example.agenttest.exception.DiagramSessionNotFoundException;
+import com.example.agenttest.exception.GeminiApiException;
+import com.example.agenttest.service.ChunkedExtractionService;
+import com.example.agenttest.service.DiagramRenderService;
+import com.example.agenttest.service.DiagramSessionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Incremental diagram editing: a class model is kept in memory per session and patched in place,
+ * then regenerated through PlantUMLGeneratorService and re-rendered without calling Gemini.
+ * A session starts either from a class model sent by the client or from requirements text, whose class
+ * model is extracted by Gemini once.
+ */
+@RestController
+@RequestMapping("/api/v1/diagrams/sessions")
+public class DiagramSessionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramSessionController.class);
+    private final DiagramSessionService sessionService;
+    private final DiagramRenderService renderService;
+    private final ChunkedExtractionService chunkedExtractionService;
+
+    @Autowired
+    public DiagramSessionController(DiagramSessionService sessionService, DiagramRenderService renderService,
+                                    ChunkedExtractionService chunkedExtractionService) {
+        this.sessionService = sessionService;
+        this.renderService = renderService;
+        this.chunkedExtractionService = chunkedExtractionService;
+    }
+
+    @PostMapping
+    public ResponseEntity<DiagramSessionResponse> createSession(@RequestBody GeminiResponse diagramData) {
+        try {
+            String sessionId = sessionService.createSession(diagramData);
+            return render(sessionId, sessionService.getPlantUML(sessionId), "Diagram session created.");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new DiagramSessionResponse(null, null, null, e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new DiagramSessionResponse(null, null, null, e.getMessage()));
+        }
+    }
+
+    /**
+     * Extracts the class model of the requirements (in chunks when the text is large) and opens a session on it,
+     * so the generated diagram can be corrected with patches.
+     */
+    @PostMapping("/from-text")
+    public ResponseEntity<DiagramSessionResponse> createSessionFromText(@RequestBody TextExplanationRequest request) {
+        if (request == null || request.getText() == null || request.getText().isBlank()) {
+            return ResponseEntity.badRequest().body(new DiagramSessionResponse(null, null, null, "Text explanation cannot be empty."));
+        }
+        try {
+            List<String> chunks = chunkedExtractionService.split(request.getText());
+            GeminiResponse model = chunkedExtractionService.extractAndMerge(chunks);
+            String sessionId = sessionService.createSession(model);
+            return render(sessionId, sessionService.getPlantUML(sessionId),
+                    "Diagram session created from " + chunks.size() + " chunk(s).");
+        } catch (DeadlineExceededException e) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(new DiagramSessionResponse(null, null, null, "Request deadline exceeded."));
+        } catch (GeminiApiException e) {
+            if (DeadlineExceededException.isCause(e)) {
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                        .body(new DiagramSessionResponse(null, null, null, "Request deadline exceeded."));
+            }
+            logger.error("Gemini API error: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new DiagramSessionResponse(null, null, null, "Error communicating with AI service: " + e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new DiagramSessionResponse(null, null, null, e.getMessage()));
+        }
+    }
+
+    @PatchMapping("/{sessionId}")
+    public ResponseEntity<DiagramSessionResponse> patchSession(@PathVariable String sessionId,
+                                                               @RequestBody DiagramPatchRequest request) {
+        try {
+            long start = System.nanoTime();
+            String plantUmlSource = sessionService.applyPatch(sessionId, request == null ? null : request.getOperations());
+            ResponseEntity<DiagramSessionResponse> response = render(sessionId, plantUmlSource, "Diagram updated.");
+            logger.debug("Patched diagram session {} in {} ms", sessionId, (System.nanoTime() - start) / 1_000_000);
+            return response;
+        } catch (DiagramSessionNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new DiagramSessionResponse(sessionId, null, null, e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected patch for diagram session {}: {}", sessionId, e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(new DiagramSessionResponse(sessionId, null, null, "Invalid patch: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{sessionId}/model")
+    public ResponseEntity<GeminiResponse> getModel(@PathVariable String sessionId) {
+        try {
+            return ResponseEntity.ok(sessionService.getModel(sessionId));
+        } catch (DiagramSessionNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> closeSession(@PathVariable String sessionId) {
+        sessionService.closeSession(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private ResponseEntity<DiagramSessionResponse> render(String sessionId, String plantUmlSource, String message) {
+        try {
+            String svg = renderService.renderSvg(plantUmlSource);
+            return ResponseEntity.ok(new DiagramSessionResponse(sessionId, plantUmlSource, svg, message));
+        } catch (DeadlineExceededException e) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(new DiagramSessionResponse(sessionId, plantUmlSource, null, "Request deadline exceeded."));
+        } catch (IOException e) {
+            logger.error("Error rendering diagram session {}: {}", sessionId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new DiagramSessionResponse(sessionId, plantUmlSource, null, "Failed to render diagram."));
+        }
+    }
+}
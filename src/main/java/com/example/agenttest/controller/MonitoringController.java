@@ -0,0 +1,95 @@
+package com.example.agenttest.controller;
+
+import com.example.agenttest.service.AdmissionLimiter;
+import com.example.agenttest.service.DeadlineService;
+import com.example.agenttest.service.DiagramPrefetchService;
+import com.example.agenttest.service.DiagramRenderService;
+import com.example.agenttest.service.GeminiCallScheduler;
+import com.example.agenttest.service.GeminiCircuitBreaker;
+import com.example.agenttest.service.GeminiModelRouter;
+import com.example.agenttest.service.NearDuplicateService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Read-only runtime metrics of the generation pipeline.
+ */
+@RestController
+@RequestMapping("/api/v1/monitoring")
+public class MonitoringController {
+
+    private final GeminiCallScheduler callScheduler;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final NearDuplicateService nearDuplicateService;
+    private final DeadlineService deadlineService;
+    private final GeminiModelRouter modelRouter;
+    private final DiagramPrefetchService diagramPrefetchService;
+    private final AdmissionLimiter admissionLimiter;
+    private final DiagramRenderService renderService;
+
+    @Autowired
+    public MonitoringController(GeminiCallScheduler callScheduler, GeminiCircuitBreaker circuitBreaker,
+                                NearDuplicateService nearDuplicateService, DeadlineService deadlineService,
+                                GeminiModelRouter modelRouter, DiagramPrefetchService diagramPrefetchService,
+                                AdmissionLimiter admissionLimiter, DiagramRenderService renderService) {
+        this.callScheduler = callScheduler;
+        this.circuitBreaker = circuitBreaker;
+        this.nearDuplicateService = nearDuplicateService;
+        this.deadlineService = deadlineService;
+        this.modelRouter = modelRouter;
+        this.diagramPrefetchService = diagramPrefetchService;
+        this.admissionLimiter = admissionLimiter;
+        this.renderService = renderService;
+    }
+
+    // Per-client queue depth and wait times of upstream Gemini calls
+    @GetMapping("/gemini-scheduler")
+    public ResponseEntity<Map<String, Object>> getSchedulerStats() {
+        return ResponseEntity.ok(callScheduler.getStats());
+    }
+
+    @GetMapping("/circuit-breaker")
+    public ResponseEntity<Map<String, Object>> getCircuitBreakerStats() {
+        return ResponseEntity.ok(circuitBreaker.getStats());
+    }
+
+    @GetMapping("/near-duplicates")
+    public ResponseEntity<Map<String, Object>> getNearDuplicateStats() {
+        return ResponseEntity.ok(nearDuplicateService.getStats());
+    }
+
+    // Work abandoned per stage because the request deadline passed
+    @GetMapping("/deadlines")
+    public ResponseEntity<Map<String, Object>> getDeadlineStats() {
+        return ResponseEntity.ok(deadlineService.getStats());
+    }
+
+    // Routing decisions per endpoint and latency histograms per model
+    @GetMapping("/model-routing")
+    public ResponseEntity<Map<String, Object>> getModelRoutingStats() {
+        return ResponseEntity.ok(modelRouter.getStats());
+    }
+
+    // Hit rate and wasted work of speculative diagram prefetching
+    @GetMapping("/diagram-prefetch")
+    public ResponseEntity<Map<String, Object>> getDiagramPrefetchStats() {
+        return ResponseEntity.ok(diagramPrefetchService.getStats());
+    }
+
+    // Per-engine render counts and timings (Smetana vs dot), dot worker usage
+    @GetMapping("/rendering")
+    public ResponseEntity<Map<String, Object>> getRenderStats() {
+        return ResponseEntity.ok(renderService.getRenderStats());
+    }
+
+    // Adaptive concurrency limit, wait queue and shed requests of the generation endpoints
+    @GetMapping("/admission")
+    public ResponseEntity<Map<String, Object>> getAdmissionStats() {
+        return ResponseEntity.ok(admissionLimiter.getStats());
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.agenttest.dto;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CDCWithDiagramResponse {
+    private String document;
+    private String plantUmlSource;
+    private String diagramSvg; // null when only the CDC could be produced
+    private String message;
+}
@@ -0,0 +1,15 @@
+package com.example.agenttest.dto;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterDiagram {
+    private String name;
+    private List<String> classNames;
+    private String svg;
+}
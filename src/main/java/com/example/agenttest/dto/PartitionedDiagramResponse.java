@@ -0,0 +1,16 @@
+package com.example.agenttest.dto;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PartitionedDiagramResponse {
+    private List<ClusterDiagram> clusters;
+    private String overviewSvg; // one node per cluster, edges labelled with the number of relationships between them
+    private int interClusterRelationships;
+    private String message;
+}
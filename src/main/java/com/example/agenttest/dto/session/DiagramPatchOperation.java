@@ -0,0 +1,35 @@
+package com.example.agenttest.dto.session;
+
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.MethodDetail;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * A single delta applied to a diagram edit session.
+ * Only the fields relevant to {@link #op} need to be set.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DiagramPatchOperation {
+
+    public enum Op {
+        ADD_CLASS, REMOVE_CLASS, RENAME_CLASS, SET_STEREOTYPE,
+        ADD_ATTRIBUTE, REMOVE_ATTRIBUTE,
+        ADD_METHOD, REMOVE_METHOD,
+        ADD_RELATIONSHIP, REMOVE_RELATIONSHIP, SET_MULTIPLICITY
+    }
+
+    private Op op;
+    private String className;    // class the operation targets
+    private String newName;      // RENAME_CLASS
+    private String stereotype;   // SET_STEREOTYPE
+    private String memberName;   // REMOVE_ATTRIBUTE / REMOVE_METHOD
+
+    private ClassDetail classDetail;         // ADD_CLASS
+    private AttributeDetail attribute;       // ADD_ATTRIBUTE (replaces an attribute with the same name)
+    private MethodDetail method;             // ADD_METHOD (replaces a method with the same name)
+    private RelationshipDetail relationship; // ADD_RELATIONSHIP, or source/target/type selector for REMOVE_RELATIONSHIP and SET_MULTIPLICITY
+}
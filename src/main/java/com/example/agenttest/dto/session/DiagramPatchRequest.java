@@ -0,0 +1,14 @@
+package com.example.agenttest.dto.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramPatchRequest {
+    private List<DiagramPatchOperation> operations;
+}
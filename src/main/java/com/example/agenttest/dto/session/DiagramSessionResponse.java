@@ -0,0 +1,15 @@
+package com.example.agenttest.dto.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramSessionResponse {
+    private String sessionId;
+    private String plantUmlSource; // Regenerated from the session model
+    private String svg;
+    private String message;
+}
@@ -0,0 +1,17 @@
+package com.example.agenttest.exception;
+
+public class CircuitOpenException extends GeminiApiException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+
+    /**
+     * Whether the given failure was caused, directly or through wrapping, by an open circuit.
+     */
+    public static boolean isCause(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException) return true;
+        }
+        return false;
+    }
+}
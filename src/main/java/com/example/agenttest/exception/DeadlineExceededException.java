@@ -0,0 +1,22 @@
+package com.example.agenttest.exception;
+
+public class DeadlineExceededException extends RuntimeException {
+    private final String stage;
+
+    public DeadlineExceededException(String stage) {
+        super("Request deadline exceeded before or during stage: " + stage);
+        this.stage = stage;
+    }
+
+    public String getStage() { return stage; }
+
+    /**
+     * Whether the given failure was caused, directly or through wrapping, by an exceeded deadline.
+     */
+    public static boolean isCause(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof DeadlineExceededException) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.agenttest.exception;
+
+public class DiagramSessionNotFoundException extends RuntimeException {
+    public DiagramSessionNotFoundException(String sessionId) {
+        super("Diagram session not found or expired: " + sessionId);
+    }
+}
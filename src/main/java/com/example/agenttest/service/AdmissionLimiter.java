@@ -0,0 +1,224 @@
+package com.example.agenttest.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for the generation endpoints: caps the number of generations in flight, lets a few
+ * more requests wait briefly for a slot, and rejects the rest so they can be shed immediately.
+ * <p>
+ * The cap adapts to observed latency with a gradient rule: it shrinks when the short-term average response
+ * time rises above {@code admission.rtt-tolerance} times the long-term average, and grows by roughly
+ * {@code sqrt(limit)} while latency is stable and the cap is actually being used. Only requests that called
+ * Gemini feed the averages: cache hits, rejected input and circuit-open failures return in milliseconds and
+ * would make a loaded upstream look fast. Requests that end in a gateway timeout count as an overload signal
+ * and cut the cap by {@code admission.timeout-backoff}.
+ */
+@Service
+public class AdmissionLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionLimiter.class);
+
+    private static final int SHORT_WINDOW = 10;  // samples in the short-term response time average
+    private static final int LONG_WINDOW = 100;  // samples in the long-term response time average
+
+    @Value("${admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${admission.initial-limit:8}")
+    private int initialLimit;
+
+    @Value("${admission.min-limit:2}")
+    private int minLimit;
+
+    @Value("${admission.max-limit:64}")
+    private int maxLimit;
+
+    @Value("${admission.max-queue:8}")
+    private int maxQueue;
+
+    @Value("${admission.max-wait-ms:500}")
+    private long maxWaitMillis;
+
+    @Value("${admission.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    @Value("${admission.smoothing:0.2}")
+    private double smoothing;
+
+    @Value("${admission.timeout-backoff:0.9}")
+    private double timeoutBackoff;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder unsampled = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        minLimit = Math.max(1, minLimit);
+        maxLimit = Math.max(minLimit, maxLimit);
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        logger.info("Admission control {}: initial limit {} (min {}, max {}), queue {} for up to {} ms",
+                enabled ? "enabled" : "disabled", (int) limit, minLimit, maxLimit, maxQueue, maxWaitMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Takes a slot, waiting at most {@code admission.max-wait-ms} (and never beyond {@code maxWaitNanos})
+     * when the cap is reached and the wait queue has room.
+     *
+     * @return the number of requests in flight once admitted, or -1 when the request must be shed
+     */
+    public int tryAcquire(long maxWaitNanos) {
+        long waitNanos = Math.min(maxWaitNanos, TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                return admit();
+            }
+            if (waiting >= maxQueue || waitNanos <= 0) {
+                shed.increment();
+                return -1;
+            }
+            waiting++;
+            queued.increment();
+            try {
+                while (inFlight >= (int) limit) {
+                    if (waitNanos <= 0) {
+                        shed.increment();
+                        return -1;
+                    }
+                    waitNanos = slotFreed.awaitNanos(waitNanos);
+                }
+                return admit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shed.increment();
+                return -1;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot and feeds the response time of the request into the limit.
+     *
+     * @param rttNanos         time between admission and completion
+     * @param inFlightAtAdmit  value returned by {@link #tryAcquire} for this request
+     * @param timedOut         the request ended in a gateway timeout
+     * @param calledUpstream   the request called Gemini; otherwise its response time is not a latency sample
+     */
+    public void release(long rttNanos, int inFlightAtAdmit, boolean timedOut, boolean calledUpstream) {
+        lock.lock();
+        try {
+            inFlight--;
+            int before = (int) limit;
+            if (timedOut) {
+                limit = Math.max(minLimit, limit * timeoutBackoff);
+            } else if (calledUpstream) {
+                updateLimit(rttNanos, inFlightAtAdmit);
+            } else {
+                unsampled.increment();
+            }
+            if ((int) limit != before) {
+                logger.debug("Admission limit {} -> {}", before, (int) limit);
+            }
+            if ((int) limit > before) {
+                slotFreed.signalAll();
+            } else {
+                slotFreed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seconds a shed client should wait before retrying: roughly the time for the current
+     * in-flight requests to drain one slot, at least one second.
+     */
+    public long retryAfterSeconds() {
+        lock.lock();
+        try {
+            double perSlotNanos = longRttNanos / Math.max(1.0, limit);
+            return Math.max(1L, Math.min(60L, (long) Math.ceil(perSlotNanos / 1e9)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            result.put("enabled", enabled);
+            result.put("limit", (int) limit);
+            result.put("inFlight", inFlight);
+            result.put("waiting", waiting);
+            result.put("shortRttMillis", shortRttNanos / 1_000_000);
+            result.put("longRttMillis", longRttNanos / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+        result.put("minLimit", minLimit);
+        result.put("maxLimit", maxLimit);
+        result.put("maxQueue", maxQueue);
+        result.put("admitted", admitted.sum());
+        result.put("queued", queued.sum());
+        result.put("shed", shed.sum());
+        result.put("unsampled", unsampled.sum());
+        return result;
+    }
+
+    private int admit() {
+        inFlight++;
+        admitted.increment();
+        return inFlight;
+    }
+
+    // Called with the lock held
+    private void updateLimit(long rttNanos, int inFlightAtAdmit) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+        // After a sustained slowdown that has cleared, let the baseline catch up instead of throttling for long
+        if (longRttNanos > 2 * shortRttNanos) {
+            longRttNanos *= 0.95;
+        }
+        // The cap was not the bottleneck: latency says nothing about whether a higher cap would help
+        if (inFlightAtAdmit < limit / 2) return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+    }
+}
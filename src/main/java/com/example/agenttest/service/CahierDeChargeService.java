@@ -1,9 +1,11 @@
 package com.example.agenttest.service;
 
+import com.example.agenttest.context.DeadlineAwareRequestFactory;
 import com.example.agenttest.exception.GenerationException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -22,11 +24,16 @@ public class CahierDeChargeService {
     @Value("${gemini.api.key}")
     private String apiKey;
 
-    @Value("${gemini.api.model-name}")
-    private String modelName;
-
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate = new RestTemplate(new DeadlineAwareRequestFactory());
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final GeminiCallExecutor callExecutor;
+    private final DiagramPrefetchService diagramPrefetchService;
+
+    @Autowired
+    public CahierDeChargeService(GeminiCallExecutor callExecutor, DiagramPrefetchService diagramPrefetchService) {
+        this.callExecutor = callExecutor;
+        this.diagramPrefetchService = diagramPrefetchService;
+    }
 
     public String generateCahierDeCharge(String requirements) throws GenerationException {
         try {
@@ -35,11 +42,15 @@ public class CahierDeChargeService {
             final String rawDocument = extractCDCText(responseText);
 
             // Nettoyage du markdown avant retour
-            return cleanCDCMarkdown(rawDocument);
+            final String document = cleanCDCMarkdown(rawDocument);
+
+            // Le diagramme est souvent demandé juste après : on le prépare en arrière-plan (si activé)
+            diagramPrefetchService.prefetch(requirements);
+            return document;
 
         } catch (Exception e) {
             logger.error("Erreur lors de la génération du CDC", e);
-            throw new GenerationException("Échec de la génération: " + e.getMessage());
+            throw new GenerationException("Échec de la génération: " + e.getMessage(), e);
         }
     }
     private String buildCDCPrompt(String requirements) {
@@ -86,7 +97,7 @@ public class CahierDeChargeService {
     - Maximum 5 niveaux de profondeur
     """;
     }
-    private String cleanCDCMarkdown(String rawResponse) {
+    static String cleanCDCMarkdown(String rawResponse) {
         // Supprime les blocs ```markdown``` s'ils existent
         return rawResponse.replace("```markdown", "")
                 .replace("```", "")
@@ -107,9 +118,8 @@ public class CahierDeChargeService {
             requestBody.put("contents", List.of(content));
 
             HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            String url = String.format(GEMINI_API_URL, modelName, apiKey);
-
-            ResponseEntity<String> response = restTemplate.postForEntity(url, request, String.class);
+            ResponseEntity<String> response = callExecutor.execute("cdc", prompt.length(),
+                    model -> restTemplate.postForEntity(String.format(GEMINI_API_URL, model, apiKey), request, String.class));
 
             if (!response.getStatusCode().is2xxSuccessful()) {
                 throw new GenerationException("API returned status: " + response.getStatusCode());
@@ -118,7 +128,7 @@ public class CahierDeChargeService {
             return response.getBody();
 
         } catch (Exception e) {
-            throw new GenerationException("Erreur API Gemini: " + e.getMessage());
+            throw new GenerationException("Erreur API Gemini: " + e.getMessage(), e);
         }
     }
 
@@ -0,0 +1,261 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.MethodDetail;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.exception.DeadlineExceededException;
+import com.example.agenttest.exception.GeminiApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Map-reduce class extraction for large requirement documents.
+ * <p>
+ * The text is split at paragraph and section boundaries, each chunk is sent to Gemini in parallel for its
+ * class model, and the partial models are merged: classes are de-duplicated by name through a hash index,
+ * their attributes and methods are unioned, and duplicate relationships are dropped.
+ */
+@Service
+public class ChunkedExtractionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedExtractionService.class);
+
+    // A blank line, or a line break right before a markdown heading, ends a paragraph
+    private static final Pattern PARAGRAPH_BOUNDARY = Pattern.compile("\\n\\s*\\n|\\n(?=\\s*#)");
+
+    private final GeminiService geminiService;
+    private final ExecutorService executor;
+
+    @Value("${diagram.chunked.max-chunk-chars:6000}")
+    private int maxChunkChars;
+
+    @Autowired
+    public ChunkedExtractionService(GeminiService geminiService,
+                                    @Qualifier("chunkExtractionExecutor") ExecutorService executor) {
+        this.geminiService = geminiService;
+        this.executor = executor;
+    }
+
+    /**
+     * Splits the text into chunks of at most {@code diagram.chunked.max-chunk-chars} characters,
+     * keeping paragraphs together whenever they fit.
+     */
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String paragraph : PARAGRAPH_BOUNDARY.split(text)) {
+            String trimmed = paragraph.strip();
+            if (trimmed.isEmpty()) continue;
+            if (current.length() > 0 && current.length() + 2 + trimmed.length() > maxChunkChars) {
+                chunks.add(current.toString());
+                current.setLength(0);
+            }
+            if (trimmed.length() > maxChunkChars) {
+                chunks.addAll(splitLongParagraph(trimmed));
+                continue;
+            }
+            if (current.length() > 0) current.append("\n\n");
+            current.append(trimmed);
+        }
+        if (current.length() > 0) chunks.add(current.toString());
+        return chunks;
+    }
+
+    /**
+     * Extracts a class model from every chunk in parallel and merges the results.
+     * The first failure stops the extraction: chunks still queued are skipped without calling Gemini
+     * and running ones are interrupted. That first failure is the one reported, whichever chunk
+     * completes first afterwards.
+     *
+     * @throws GeminiApiException if extraction fails for any chunk
+     * @throws com.example.agenttest.exception.DeadlineExceededException if that failure was the request deadline
+     */
+    public GeminiResponse extractAndMerge(List<String> chunks) {
+        long start = System.nanoTime();
+        GenerationContext context = GenerationContext.current();
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        ExecutorCompletionService<GeminiResponse> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<GeminiResponse>, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            indexes.put(completion.submit(() -> {
+                if (firstFailure.get() != null) throw new CancellationException("Another chunk failed");
+                try {
+                    return GenerationContext.callWith(context, () -> geminiService.extractClassModel(chunk));
+                } catch (RuntimeException e) {
+                    firstFailure.compareAndSet(null, e);
+                    throw e;
+                }
+            }), i);
+        }
+
+        GeminiResponse[] partials = new GeminiResponse[chunks.size()];
+        try {
+            // Completion order, so a failure is seen as soon as it happens rather than after earlier chunks
+            for (int done = 0; done < chunks.size(); done++) {
+                Future<GeminiResponse> future = completion.take();
+                // A skipped chunk can complete before the failure that caused the skip
+                if (firstFailure.get() != null) break;
+                partials[indexes.get(future)] = future.get();
+            }
+        } catch (ExecutionException e) {
+            firstFailure.compareAndSet(null, e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            cancel(firstFailure, e, indexes.keySet());
+            Thread.currentThread().interrupt();
+            throw new GeminiApiException("Chunked extraction interrupted", e);
+        }
+        Throwable cause = firstFailure.get();
+        if (cause != null) {
+            cancel(firstFailure, cause, indexes.keySet());
+            if (cause instanceof GeminiApiException geminiApiException) throw geminiApiException;
+            if (cause instanceof DeadlineExceededException deadlineExceeded) throw deadlineExceeded;
+            throw new GeminiApiException("Chunked extraction failed: " + cause.getMessage(), cause);
+        }
+
+        GeminiResponse merged = merge(Arrays.asList(partials));
+        logger.info("Extracted {} classes and {} relationships from {} chunks in {} ms",
+                merged.getClasses().size(), merged.getRelationships().size(), chunks.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return merged;
+    }
+
+    GeminiResponse merge(List<GeminiResponse> partials) {
+        Map<String, ClassDetail> classesByName = new LinkedHashMap<>();
+        Map<String, Map<String, AttributeDetail>> attributesByClass = new LinkedHashMap<>();
+        Map<String, Map<String, MethodDetail>> methodsByClass = new LinkedHashMap<>();
+        Map<String, RelationshipDetail> relationshipsByKey = new LinkedHashMap<>();
+
+        for (GeminiResponse partial : partials) {
+            if (partial == null || partial.getClasses() == null) continue;
+            for (ClassDetail classDetail : partial.getClasses()) {
+                if (classDetail == null || !StringUtils.hasText(classDetail.getName())) continue;
+                String key = normalize(classDetail.getName());
+                ClassDetail canonical = classesByName.computeIfAbsent(key, k -> {
+                    ClassDetail copy = new ClassDetail();
+                    copy.setName(classDetail.getName().trim());
+                    return copy;
+                });
+                if (!StringUtils.hasText(canonical.getStereotype())) {
+                    canonical.setStereotype(classDetail.getStereotype());
+                }
+                Map<String, AttributeDetail> attributes = attributesByClass.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                if (classDetail.getAttributes() != null) {
+                    for (AttributeDetail attr : classDetail.getAttributes()) {
+                        if (attr != null && StringUtils.hasText(attr.getName())) {
+                            attributes.putIfAbsent(normalize(attr.getName()), attr);
+                        }
+                    }
+                }
+                Map<String, MethodDetail> methods = methodsByClass.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                if (classDetail.getMethods() != null) {
+                    for (MethodDetail method : classDetail.getMethods()) {
+                        if (method != null && StringUtils.hasText(method.getName())) {
+                            int arity = method.getParameters() == null ? 0 : method.getParameters().size();
+                            methods.putIfAbsent(normalize(method.getName()) + "/" + arity, method);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (GeminiResponse partial : partials) {
+            if (partial == null || partial.getRelationships() == null) continue;
+            for (RelationshipDetail rel : partial.getRelationships()) {
+                if (rel == null || !StringUtils.hasText(rel.getType())) continue;
+                canonicalizeEnds(rel, classesByName);
+                String key = relationshipKey(rel);
+                RelationshipDetail existing = relationshipsByKey.putIfAbsent(key, rel);
+                if (existing != null) {
+                    // Keep the first occurrence, filling in details later chunks may have added
+                    if (!StringUtils.hasText(existing.getLabel())) existing.setLabel(rel.getLabel());
+                    if (!StringUtils.hasText(existing.getMultiplicitySource())) existing.setMultiplicitySource(rel.getMultiplicitySource());
+                    if (!StringUtils.hasText(existing.getMultiplicityTarget())) existing.setMultiplicityTarget(rel.getMultiplicityTarget());
+                }
+            }
+        }
+
+        List<ClassDetail> classes = new ArrayList<>(classesByName.size());
+        for (Map.Entry<String, ClassDetail> entry : classesByName.entrySet()) {
+            ClassDetail classDetail = entry.getValue();
+            classDetail.setAttributes(new ArrayList<>(attributesByClass.get(entry.getKey()).values()));
+            classDetail.setMethods(new ArrayList<>(methodsByClass.get(entry.getKey()).values()));
+            classes.add(classDetail);
+        }
+
+        GeminiResponse merged = new GeminiResponse();
+        merged.setClasses(classes);
+        merged.setRelationships(new ArrayList<>(relationshipsByKey.values()));
+        return merged;
+    }
+
+    private void cancel(AtomicReference<Throwable> firstFailure, Throwable cause, Collection<Future<GeminiResponse>> futures) {
+        firstFailure.compareAndSet(null, cause);
+        futures.forEach(f -> f.cancel(true));
+    }
+
+    private List<String> splitLongParagraph(String paragraph) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < paragraph.length()) {
+            int end = Math.min(start + maxChunkChars, paragraph.length());
+            if (end < paragraph.length()) {
+                // Prefer cutting after the last sentence that fits
+                int sentenceEnd = paragraph.lastIndexOf(". ", end);
+                if (sentenceEnd > start) end = sentenceEnd + 1;
+            }
+            pieces.add(paragraph.substring(start, end).strip());
+            start = end;
+        }
+        return pieces;
+    }
+
+    // Rewrites relationship ends to the canonical spelling of the merged class names
+    private void canonicalizeEnds(RelationshipDetail rel, Map<String, ClassDetail> classesByName) {
+        rel.setSource(canonicalName(rel.getSource(), classesByName));
+        rel.setTarget(canonicalName(rel.getTarget(), classesByName));
+        rel.setContainer(canonicalName(rel.getContainer(), classesByName));
+        rel.setPart(canonicalName(rel.getPart(), classesByName));
+    }
+
+    private String canonicalName(String name, Map<String, ClassDetail> classesByName) {
+        if (!StringUtils.hasText(name)) return name;
+        ClassDetail classDetail = classesByName.get(normalize(name));
+        return classDetail != null ? classDetail.getName() : name.trim();
+    }
+
+    private String relationshipKey(RelationshipDetail rel) {
+        boolean wholePart = StringUtils.hasText(rel.getContainer()) && StringUtils.hasText(rel.getPart());
+        String source = wholePart ? rel.getContainer() : rel.getSource();
+        String target = wholePart ? rel.getPart() : rel.getTarget();
+        return normalize(rel.getType()) + "|" + normalize(source) + "|" + normalize(target);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.GenerationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Generates the cahier de charge and its class diagram with a single streamed Gemini call.
+ * <p>
+ * The prompt asks for the PlantUML diagram first, then the CDC markdown, separated by fixed markers.
+ * The diagram is handed to the renderer as soon as {@code @enduml} has streamed in, so rendering
+ * overlaps with the remainder of the response instead of starting after it.
+ */
+@Service
+public class CombinedGenerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CombinedGenerationService.class);
+    private static final String DIAGRAM_MARKER = "===DIAGRAM===";
+    private static final String CDC_MARKER = "===CDC===";
+
+    /**
+     * @param diagramSvg   rendered diagram, or null when the diagram part could not be produced
+     * @param diagramError reason the diagram is missing, or null
+     */
+    public record CombinedResult(String document, String plantUmlSource, String diagramSvg, String diagramError) { }
+
+    private final GeminiService geminiService;
+    private final DiagramRenderService renderService;
+    private final ExecutorService renderExecutor;
+
+    @Autowired
+    public CombinedGenerationService(GeminiService geminiService, DiagramRenderService renderService,
+                                     @Qualifier("diagramRenderExecutor") ExecutorService renderExecutor) {
+        this.geminiService = geminiService;
+        this.renderService = renderService;
+        this.renderExecutor = renderExecutor;
+    }
+
+    public CombinedResult generate(String requirements) throws GenerationException {
+        StreamParser parser = new StreamParser(GenerationContext.current());
+        try {
+            geminiService.streamGeminiApi("combined", buildPrompt(requirements), parser::accept);
+        } catch (RuntimeException e) {
+            parser.cancel();
+            logger.error("Erreur lors de la génération combinée CDC + diagramme", e);
+            throw new GenerationException("Échec de la génération: " + e.getMessage(), e);
+        }
+
+        String document = parser.document();
+        if (document == null || document.isBlank()) {
+            parser.cancel();
+            throw new GenerationException("La réponse ne contient pas de cahier de charge");
+        }
+        return parser.awaitDiagram(document);
+    }
+
+    private String buildPrompt(String requirements) {
+        return """
+    À partir du texte ci-dessous, produis DEUX parties, dans cet ordre exact et sans autre commentaire :
+
+    """ + DIAGRAM_MARKER + """
+
+    Un diagramme de classes PlantUML entre @startuml et @enduml (classes avec attributs et méthodes,
+    associations avec multiplicités, héritage, agrégation/composition si décrits), sans bloc ```.
+
+    """ + CDC_MARKER + """
+
+    Un cahier des charges technique complet en français, au format Markdown SANS ```markdown```, avec :
+    # Titre du Projet
+    ## 1. Introduction (Objectif, Portée : Inclus / Exclus)
+    ## 2. Exigences Fonctionnelles (### par module)
+    ## 3. Exigences Techniques (Frontend, Backend, Contraintes)
+    ## 4. Livrables
+    ## 5. Planning (phases avec durées)
+
+    Règles strictes pour le cahier des charges :
+    - Titres en ## et ### uniquement
+    - Listes à puces avec - seulement
+
+    Texte à analyser :
+    """ + requirements;
+    }
+
+    /**
+     * Accumulates the streamed fragments and starts the render once the diagram block is complete.
+     * Fragments arrive in order on the calling thread. The render is submitted as a plain task rather than
+     * a CompletableFuture so that cancelling it interrupts a render already running.
+     */
+    private final class StreamParser {
+        private final GenerationContext context;
+        private final StringBuilder buffer = new StringBuilder();
+        private String plantUmlSource;
+        private Future<String> render;
+
+        StreamParser(GenerationContext context) {
+            this.context = context;
+        }
+
+        void accept(String fragment) {
+            buffer.append(fragment);
+            if (render != null) return;
+            int end = buffer.indexOf("@enduml");
+            if (end == -1) return;
+            int start = buffer.lastIndexOf("@startuml", end);
+            if (start == -1) return;
+
+            plantUmlSource = buffer.substring(start, end + "@enduml".length());
+            String source = plantUmlSource;
+            logger.debug("Diagram block complete after {} chars, rendering while the CDC streams", buffer.length());
+            render = renderExecutor.submit(() -> GenerationContext.callWith(context, () -> {
+                try {
+                    return renderService.renderSvg(source);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        String document() {
+            int marker = buffer.indexOf(CDC_MARKER);
+            if (marker != -1) {
+                return CahierDeChargeService.cleanCDCMarkdown(buffer.substring(marker + CDC_MARKER.length()));
+            }
+            // Markers dropped by the model: keep whatever follows the diagram block
+            int end = buffer.indexOf("@enduml");
+            String rest = end == -1 ? buffer.toString() : buffer.substring(end + "@enduml".length());
+            return CahierDeChargeService.cleanCDCMarkdown(rest.replace(DIAGRAM_MARKER, ""));
+        }
+
+        CombinedResult awaitDiagram(String document) {
+            if (render == null) {
+                logger.warn("Combined response has no complete @startuml/@enduml block");
+                return new CombinedResult(document, null, null, "La réponse ne contient pas de diagramme PlantUML");
+            }
+            try {
+                String svg = render.get(context.remainingNanos(), TimeUnit.NANOSECONDS);
+                return new CombinedResult(document, plantUmlSource, svg, null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                render.cancel(true);
+                return new CombinedResult(document, plantUmlSource, null, "Rendu du diagramme interrompu");
+            } catch (TimeoutException e) {
+                render.cancel(true);
+                return new CombinedResult(document, plantUmlSource, null, "Délai dépassé pendant le rendu du diagramme");
+            } catch (ExecutionException e) {
+                logger.error("Erreur lors du rendu du diagramme combiné: {}", e.getCause().getMessage());
+                return new CombinedResult(document, plantUmlSource, null, "Échec du rendu du diagramme: " + e.getCause().getMessage());
+            }
+        }
+
+        void cancel() {
+            if (render != null) render.cancel(true);
+        }
+    }
+}
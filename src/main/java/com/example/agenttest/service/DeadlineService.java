@@ -0,0 +1,81 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.DeadlineExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request deadlines: computes the deadline of incoming requests, checks the remaining budget before each
+ * generation stage, and counts the work abandoned because the deadline passed.
+ */
+@Service
+public class DeadlineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadlineService.class);
+
+    @Value("${generation.deadline.default-ms:120000}")
+    private long defaultTimeoutMillis;
+
+    @Value("${generation.deadline.max-ms:300000}")
+    private long maxTimeoutMillis;
+
+    private final Map<String, LongAdder> cancelledByStage = new ConcurrentHashMap<>();
+
+    /**
+     * Deadline for a request, from the client-supplied timeout when valid, otherwise the server default.
+     * Client timeouts are capped at {@code generation.deadline.max-ms}; a default of zero means no deadline.
+     */
+    public long deadlineFor(String timeoutHeader) {
+        long timeoutMillis = defaultTimeoutMillis;
+        if (timeoutHeader != null && !timeoutHeader.isBlank()) {
+            try {
+                long requested = Long.parseLong(timeoutHeader.trim());
+                if (requested > 0) timeoutMillis = Math.min(requested, maxTimeoutMillis);
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring invalid {} header: {}", GenerationContext.TIMEOUT_HEADER, timeoutHeader);
+            }
+        }
+        return timeoutMillis <= 0 ? GenerationContext.NO_DEADLINE
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Fails fast when the current request has no budget left for the given stage.
+     *
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void checkRemaining(String stage) {
+        if (GenerationContext.current().isExpired()) {
+            throw expired(stage);
+        }
+    }
+
+    /**
+     * Records abandoned work for the stage and returns the exception to throw.
+     */
+    public DeadlineExceededException expired(String stage) {
+        cancelledByStage.computeIfAbsent(stage, k -> new LongAdder()).increment();
+        logger.warn("Deadline exceeded for client {} at stage {}", GenerationContext.current().getClientId(), stage);
+        return new DeadlineExceededException(stage);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> cancelled = new TreeMap<>();
+        cancelledByStage.forEach((stage, count) -> cancelled.put(stage, count.sum()));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("defaultTimeoutMillis", defaultTimeoutMillis);
+        result.put("maxTimeoutMillis", maxTimeoutMillis);
+        result.put("cancelled", cancelled);
+        return result;
+    }
+}
@@ -0,0 +1,400 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.MethodDetail;
+import com.example.agenttest.dto.gemini.ParameterDetail;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.dto.session.DiagramPatchOperation;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Mutable, name-indexed view of a {@link GeminiResponse} used by diagram edit sessions.
+ * <p>
+ * Classes, attributes and methods are kept in insertion-ordered maps keyed by name, and relationships
+ * are indexed by the class names at their ends, so patch operations never scan the whole model.
+ * {@link #applyAll} makes a patch all-or-nothing with an undo log of the changes it made: only a failed
+ * patch pays for its rollback, which restores the original class and relationship order.
+ * Not thread-safe: callers synchronize on the instance. {@link #toGeminiResponse()} returns deep copies,
+ * so callers never hold references into the model.
+ */
+public class DiagramModel {
+
+    private static final class ClassEntry {
+        private ClassDetail detail;
+        private long order; // position in classes, restored after a rollback
+        private final Map<String, AttributeDetail> attributes = new LinkedHashMap<>();
+        private final Map<String, MethodDetail> methods = new LinkedHashMap<>();
+    }
+
+    private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+    private final Map<Long, RelationshipDetail> relationships = new LinkedHashMap<>();
+    // Relationship ids by class name; kept apart from classes so relationships may reference classes added later
+    private final Map<String, Set<Long>> relationshipIdsByClass = new HashMap<>();
+    private long nextRelationshipId = 1; // ids also give the relationship order
+    private long nextClassOrder;
+    private Deque<Runnable> undoLog; // set while applyAll runs
+    private boolean reordered; // an undo re-inserted an entry at the end of its map
+
+    public static DiagramModel from(GeminiResponse response) {
+        DiagramModel model = new DiagramModel();
+        if (response == null) return model;
+        if (response.getClasses() != null) {
+            for (ClassDetail classDetail : response.getClasses()) {
+                if (classDetail == null || !StringUtils.hasText(classDetail.getName())) continue;
+                model.addClass(classDetail);
+            }
+        }
+        if (response.getRelationships() != null) {
+            for (RelationshipDetail rel : response.getRelationships()) {
+                if (rel == null) continue;
+                model.addRelationship(rel);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Applies the operations in order. If one fails, the changes made by the ones before it are undone.
+     *
+     * @throws IllegalArgumentException naming the failing operation; the model is left unchanged
+     */
+    public void applyAll(List<DiagramPatchOperation> operations) {
+        undoLog = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                DiagramPatchOperation operation = operations.get(i);
+                try {
+                    apply(operation);
+                } catch (IllegalArgumentException e) {
+                    rollback();
+                    throw new IllegalArgumentException(String.format("operation %d (%s): %s; no operation was applied",
+                            i + 1, operation == null ? null : operation.getOp(), e.getMessage()), e);
+                }
+            }
+        } finally {
+            undoLog = null;
+        }
+    }
+
+    public void apply(DiagramPatchOperation operation) {
+        if (operation == null || operation.getOp() == null) {
+            throw new IllegalArgumentException("Patch operation must have an 'op'");
+        }
+        switch (operation.getOp()) {
+            case ADD_CLASS -> addClass(require(operation.getClassDetail(), "classDetail"));
+            case REMOVE_CLASS -> removeClass(operation.getClassName());
+            case RENAME_CLASS -> renameClass(operation.getClassName(), operation.getNewName());
+            case SET_STEREOTYPE -> {
+                ClassDetail detail = entry(operation.getClassName()).detail;
+                String previous = detail.getStereotype();
+                detail.setStereotype(operation.getStereotype());
+                logUndo(() -> detail.setStereotype(previous));
+            }
+            case ADD_ATTRIBUTE -> {
+                AttributeDetail attr = require(operation.getAttribute(), "attribute");
+                putMember(entry(operation.getClassName()).attributes, requireName(attr.getName(), "attribute.name"), attr);
+            }
+            case REMOVE_ATTRIBUTE -> removeMember(entry(operation.getClassName()).attributes, operation.getMemberName(), "attribute");
+            case ADD_METHOD -> {
+                MethodDetail method = require(operation.getMethod(), "method");
+                putMember(entry(operation.getClassName()).methods, requireName(method.getName(), "method.name"), method);
+            }
+            case REMOVE_METHOD -> removeMember(entry(operation.getClassName()).methods, operation.getMemberName(), "method");
+            case ADD_RELATIONSHIP -> addRelationship(require(operation.getRelationship(), "relationship"));
+            case REMOVE_RELATIONSHIP -> removeRelationship(findRelationship(require(operation.getRelationship(), "relationship")));
+            case SET_MULTIPLICITY -> {
+                RelationshipDetail selector = require(operation.getRelationship(), "relationship");
+                RelationshipDetail rel = relationships.get(findRelationship(selector));
+                RelationshipDetail previous = copyOf(rel);
+                rel.setMultiplicitySource(selector.getMultiplicitySource());
+                rel.setMultiplicityTarget(selector.getMultiplicityTarget());
+                logUndo(() -> restore(rel, previous));
+            }
+        }
+    }
+
+    public GeminiResponse toGeminiResponse() {
+        List<ClassDetail> classList = new ArrayList<>(classes.size());
+        for (ClassEntry entry : classes.values()) {
+            ClassDetail copy = new ClassDetail();
+            copy.setName(entry.detail.getName());
+            copy.setStereotype(entry.detail.getStereotype());
+            copy.setAttributes(entry.attributes.values().stream().map(DiagramModel::copyOf).toList());
+            copy.setMethods(entry.methods.values().stream().map(DiagramModel::copyOf).toList());
+            classList.add(copy);
+        }
+        GeminiResponse response = new GeminiResponse();
+        response.setClasses(classList);
+        response.setRelationships(relationships.values().stream().map(DiagramModel::copyOf).toList());
+        return response;
+    }
+
+    private void addClass(ClassDetail classDetail) {
+        String name = requireName(classDetail.getName(), "classDetail.name");
+        if (classes.containsKey(name)) {
+            throw new IllegalArgumentException("Class already exists: " + name);
+        }
+        ClassEntry entry = new ClassEntry();
+        entry.detail = classDetail;
+        if (classDetail.getAttributes() != null) {
+            for (AttributeDetail attr : classDetail.getAttributes()) {
+                if (attr != null && StringUtils.hasText(attr.getName())) entry.attributes.put(attr.getName(), attr);
+            }
+        }
+        if (classDetail.getMethods() != null) {
+            for (MethodDetail method : classDetail.getMethods()) {
+                if (method != null && StringUtils.hasText(method.getName())) entry.methods.put(method.getName(), method);
+            }
+        }
+        entry.order = nextClassOrder++;
+        classes.put(name, entry);
+        logUndo(() -> classes.remove(name));
+    }
+
+    private void removeClass(String name) {
+        ClassEntry entry = entry(name);
+        for (Long id : new ArrayList<>(relationshipIds(name))) {
+            removeRelationship(id);
+        }
+        classes.remove(name);
+        logUndo(() -> {
+            classes.put(name, entry);
+            reordered = true;
+        });
+    }
+
+    private void renameClass(String oldName, String newName) {
+        requireName(newName, "newName");
+        ClassEntry entry = entry(oldName);
+        if (classes.containsKey(newName)) {
+            throw new IllegalArgumentException("Class already exists: " + newName);
+        }
+        long oldOrder = entry.order;
+        classes.remove(oldName);
+        entry.detail.setName(newName);
+        entry.order = nextClassOrder++; // a renamed class moves to the end
+        classes.put(newName, entry);
+        Set<Long> ids = relationshipIdsByClass.remove(oldName);
+        // Relationships may already reference the new name before the class exists
+        Set<Long> previousNewIds = relationshipIdsByClass.containsKey(newName)
+                ? new TreeSet<>(relationshipIdsByClass.get(newName)) : null;
+        Map<RelationshipDetail, RelationshipDetail> previousEnds = new HashMap<>();
+        if (ids != null) {
+            relationshipIdsByClass.computeIfAbsent(newName, k -> new TreeSet<>()).addAll(ids);
+            for (Long id : ids) {
+                RelationshipDetail rel = relationships.get(id);
+                previousEnds.put(rel, copyOf(rel));
+                if (oldName.equals(rel.getSource())) rel.setSource(newName);
+                if (oldName.equals(rel.getTarget())) rel.setTarget(newName);
+                if (oldName.equals(rel.getContainer())) rel.setContainer(newName);
+                if (oldName.equals(rel.getPart())) rel.setPart(newName);
+            }
+        }
+        logUndo(() -> {
+            classes.remove(newName);
+            entry.detail.setName(oldName);
+            entry.order = oldOrder;
+            classes.put(oldName, entry);
+            reordered = true;
+            if (ids != null) relationshipIdsByClass.put(oldName, ids);
+            if (previousNewIds != null) {
+                relationshipIdsByClass.put(newName, previousNewIds);
+            } else {
+                relationshipIdsByClass.remove(newName);
+            }
+            previousEnds.forEach(DiagramModel::restore);
+        });
+    }
+
+    private void addRelationship(RelationshipDetail rel) {
+        long id = nextRelationshipId++;
+        relationships.put(id, rel);
+        for (String end : ends(rel)) {
+            relationshipIdsByClass.computeIfAbsent(end, k -> new TreeSet<>()).add(id);
+        }
+        logUndo(() -> unindexRelationship(id));
+    }
+
+    private void removeRelationship(long id) {
+        RelationshipDetail rel = unindexRelationship(id);
+        if (rel == null) return;
+        logUndo(() -> {
+            relationships.put(id, rel);
+            for (String end : ends(rel)) {
+                relationshipIdsByClass.computeIfAbsent(end, k -> new TreeSet<>()).add(id);
+            }
+            reordered = true;
+        });
+    }
+
+    private RelationshipDetail unindexRelationship(long id) {
+        RelationshipDetail rel = relationships.remove(id);
+        if (rel == null) return null;
+        for (String end : ends(rel)) {
+            Set<Long> ids = relationshipIdsByClass.get(end);
+            if (ids == null) continue;
+            ids.remove(id);
+            if (ids.isEmpty()) relationshipIdsByClass.remove(end);
+        }
+        return rel;
+    }
+
+    private <T> void putMember(Map<String, T> members, String name, T member) {
+        T previous = members.put(name, member);
+        logUndo(() -> {
+            if (previous != null) members.put(name, previous); else members.remove(name);
+        });
+    }
+
+    private <T> void removeMember(Map<String, T> members, String name, String kind) {
+        // Snapshot of one class's members, to put the removed one back in its place
+        Map<String, T> before = undoLog != null ? new LinkedHashMap<>(members) : null;
+        if (members.remove(name) == null) {
+            throw new IllegalArgumentException("Unknown " + kind + ": " + name);
+        }
+        logUndo(() -> {
+            members.clear();
+            members.putAll(before);
+        });
+    }
+
+    private void logUndo(Runnable undo) {
+        if (undoLog != null) undoLog.push(undo);
+    }
+
+    // Undoes the logged changes, latest first, then restores the order of re-inserted entries
+    private void rollback() {
+        Deque<Runnable> log = undoLog;
+        undoLog = null;
+        reordered = false;
+        while (!log.isEmpty()) {
+            log.pop().run();
+        }
+        if (reordered) {
+            List<Map.Entry<String, ClassEntry>> classOrder = new ArrayList<>();
+            classes.forEach((name, entry) -> classOrder.add(Map.entry(name, entry)));
+            classOrder.sort(Comparator.comparingLong(e -> e.getValue().order));
+            classes.clear();
+            classOrder.forEach(e -> classes.put(e.getKey(), e.getValue()));
+
+            List<Map.Entry<Long, RelationshipDetail>> relationshipOrder = new ArrayList<>(relationships.size());
+            relationships.forEach((id, rel) -> relationshipOrder.add(Map.entry(id, rel)));
+            relationshipOrder.sort(Map.Entry.comparingByKey());
+            relationships.clear();
+            relationshipOrder.forEach(e -> relationships.put(e.getKey(), e.getValue()));
+            reordered = false;
+        }
+    }
+
+    /**
+     * Finds a relationship by source and target (and type, when given) among the relationships of its source class.
+     */
+    private long findRelationship(RelationshipDetail selector) {
+        String source = requireName(selector.getSource(), "relationship.source");
+        String target = requireName(selector.getTarget(), "relationship.target");
+        for (Long id : relationshipIds(source)) {
+            RelationshipDetail rel = relationships.get(id);
+            boolean sameEnds = (source.equals(rel.getSource()) && target.equals(rel.getTarget()))
+                    || (source.equals(rel.getContainer()) && target.equals(rel.getPart()));
+            boolean sameType = !StringUtils.hasText(selector.getType()) || selector.getType().equalsIgnoreCase(rel.getType());
+            if (sameEnds && sameType) return id;
+        }
+        throw new IllegalArgumentException("Unknown relationship: " + source + " -> " + target);
+    }
+
+    private static AttributeDetail copyOf(AttributeDetail attr) {
+        AttributeDetail copy = new AttributeDetail();
+        copy.setVisibility(attr.getVisibility());
+        copy.setName(attr.getName());
+        copy.setType(attr.getType());
+        return copy;
+    }
+
+    private static MethodDetail copyOf(MethodDetail method) {
+        MethodDetail copy = new MethodDetail();
+        copy.setVisibility(method.getVisibility());
+        copy.setName(method.getName());
+        copy.setReturnType(method.getReturnType());
+        if (method.getParameters() != null) {
+            copy.setParameters(method.getParameters().stream().map(p -> {
+                if (p == null) return null;
+                ParameterDetail param = new ParameterDetail();
+                param.setName(p.getName());
+                param.setType(p.getType());
+                return param;
+            }).toList());
+        }
+        return copy;
+    }
+
+    private static RelationshipDetail copyOf(RelationshipDetail rel) {
+        RelationshipDetail copy = new RelationshipDetail();
+        copy.setType(rel.getType());
+        copy.setSource(rel.getSource());
+        copy.setTarget(rel.getTarget());
+        copy.setLabel(rel.getLabel());
+        copy.setMultiplicitySource(rel.getMultiplicitySource());
+        copy.setMultiplicityTarget(rel.getMultiplicityTarget());
+        copy.setContainer(rel.getContainer());
+        copy.setPart(rel.getPart());
+        return copy;
+    }
+
+    private static void restore(RelationshipDetail rel, RelationshipDetail saved) {
+        rel.setSource(saved.getSource());
+        rel.setTarget(saved.getTarget());
+        rel.setContainer(saved.getContainer());
+        rel.setPart(saved.getPart());
+        rel.setMultiplicitySource(saved.getMultiplicitySource());
+        rel.setMultiplicityTarget(saved.getMultiplicityTarget());
+    }
+
+    private static Set<String> ends(RelationshipDetail rel) {
+        Set<String> ends = new LinkedHashSet<>();
+        if (StringUtils.hasText(rel.getSource())) ends.add(rel.getSource());
+        if (StringUtils.hasText(rel.getTarget())) ends.add(rel.getTarget());
+        if (StringUtils.hasText(rel.getContainer())) ends.add(rel.getContainer());
+        if (StringUtils.hasText(rel.getPart())) ends.add(rel.getPart());
+        return ends;
+    }
+
+    private Set<Long> relationshipIds(String className) {
+        return relationshipIdsByClass.getOrDefault(className, Set.of());
+    }
+
+    private ClassEntry entry(String name) {
+        ClassEntry entry = name == null ? null : classes.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown class: " + name);
+        }
+        return entry;
+    }
+
+    private static <T> T require(T value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing '" + field + "' for patch operation");
+        }
+        return value;
+    }
+
+    private static String requireName(String value, String field) {
+        if (!StringUtils.hasText(value)) {
+            throw new IllegalArgumentException("Missing '" + field + "' for patch operation");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.dto.ClusterDiagram;
+import com.example.agenttest.dto.PartitionedDiagramResponse;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Renders large class models as a set of smaller diagrams.
+ * <p>
+ * Classes are grouped by connectivity over their relationships: connected components larger than
+ * {@code diagram.partition.max-cluster-classes} are cut into breadth-first pieces grown from their
+ * most connected class, and small components are packed together (first fit, largest first). Each
+ * cluster is rendered as its own diagram on a fork-join pool, next to an overview diagram with one
+ * node per cluster and the number of relationships between clusters.
+ */
+@Service
+public class DiagramPartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramPartitionService.class);
+    private static final int OVERVIEW_MEMBERS = 8; // class names listed per cluster in the overview
+
+    /** Result of {@link #partition}: the per-cluster models and the number of relationships between each pair of clusters. */
+    public record Partition(List<GeminiResponse> clusters, Map<String, Integer> crossEdges) { }
+
+    private final PlantUMLGeneratorService plantUMLGenerator;
+    private final DiagramRenderService renderService;
+    private final ForkJoinPool renderPool;
+    private final DeadlineService deadlineService;
+
+    @Value("${diagram.partition.max-cluster-classes:40}")
+    private int maxClusterClasses;
+
+    @Autowired
+    public DiagramPartitionService(PlantUMLGeneratorService plantUMLGenerator, DiagramRenderService renderService,
+                                   @Qualifier("diagramRenderPool") ForkJoinPool renderPool,
+                                   DeadlineService deadlineService) {
+        this.plantUMLGenerator = plantUMLGenerator;
+        this.renderService = renderService;
+        this.renderPool = renderPool;
+        this.deadlineService = deadlineService;
+    }
+
+    /**
+     * Partitions the model and renders every cluster and the overview in parallel.
+     *
+     * @throws IOException if any diagram fails to render
+     */
+    public PartitionedDiagramResponse renderPartitioned(GeminiResponse model) throws IOException {
+        long start = System.nanoTime();
+        Partition partition = partition(model);
+        List<GeminiResponse> clusters = partition.clusters();
+
+        GenerationContext context = GenerationContext.current();
+        List<ForkJoinTask<String>> renders = new ArrayList<>(clusters.size() + 1);
+        for (GeminiResponse cluster : clusters) {
+            String source = plantUMLGenerator.generatePlantUML(cluster);
+            renders.add(renderPool.submit(() -> render(context, source)));
+        }
+        String overviewSource = buildOverview(clusters, partition.crossEdges());
+        renders.add(renderPool.submit(() -> render(context, overviewSource)));
+
+        List<String> svgs = new ArrayList<>(renders.size());
+        try {
+            for (ForkJoinTask<String> render : renders) {
+                svgs.add(render.get(context.remainingNanos(), TimeUnit.NANOSECONDS));
+            }
+        } catch (InterruptedException e) {
+            renders.forEach(r -> r.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering diagram clusters");
+        } catch (TimeoutException e) {
+            renders.forEach(r -> r.cancel(true));
+            throw deadlineService.expired("render-clusters");
+        } catch (ExecutionException e) {
+            renders.forEach(r -> r.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) throw unchecked.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            throw new IOException("Failed to render diagram cluster: " + cause.getMessage(), cause);
+        }
+
+        List<ClusterDiagram> diagrams = new ArrayList<>(clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            List<String> classNames = clusters.get(i).getClasses().stream().map(ClassDetail::getName).toList();
+            diagrams.add(new ClusterDiagram(clusterName(i), classNames, svgs.get(i)));
+        }
+        int crossEdges = partition.crossEdges().values().stream().mapToInt(Integer::intValue).sum();
+        logger.info("Rendered {} classes as {} clusters ({} inter-cluster relationships) in {} ms",
+                diagrams.stream().mapToInt(d -> d.getClassNames().size()).sum(), diagrams.size(), crossEdges,
+                (System.nanoTime() - start) / 1_000_000);
+        return new PartitionedDiagramResponse(diagrams, svgs.get(svgs.size() - 1), crossEdges,
+                "Diagram rendered as " + diagrams.size() + " cluster(s).");
+    }
+
+    /**
+     * Groups the classes of the model into clusters of at most {@code diagram.partition.max-cluster-classes}
+     * classes. Classes only referenced by a relationship are added as plain classes.
+     */
+    public Partition partition(GeminiResponse model) {
+        // Index the classes, in declaration order
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        List<ClassDetail> classes = new ArrayList<>();
+        if (model != null && model.getClasses() != null) {
+            for (ClassDetail classDetail : model.getClasses()) {
+                if (classDetail == null || !StringUtils.hasText(classDetail.getName())) continue;
+                if (ids.putIfAbsent(normalize(classDetail.getName()), classes.size()) == null) classes.add(classDetail);
+            }
+        }
+        List<RelationshipDetail> relationships = new ArrayList<>();
+        List<int[]> edges = new ArrayList<>();
+        if (model != null && model.getRelationships() != null) {
+            for (RelationshipDetail rel : model.getRelationships()) {
+                if (rel == null || !StringUtils.hasText(rel.getType())) continue;
+                String[] ends = ends(rel);
+                if (!StringUtils.hasText(ends[0]) || !StringUtils.hasText(ends[1])) continue;
+                relationships.add(rel);
+                edges.add(new int[]{nodeId(ends[0], ids, classes), nodeId(ends[1], ids, classes)});
+            }
+        }
+
+        int n = classes.size();
+        List<List<Integer>> adjacency = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) adjacency.add(new ArrayList<>());
+        for (int[] edge : edges) {
+            if (edge[0] == edge[1]) continue;
+            adjacency.get(edge[0]).add(edge[1]);
+            adjacency.get(edge[1]).add(edge[0]);
+        }
+
+        int cap = Math.max(1, maxClusterClasses);
+        List<List<Integer>> pieces = new ArrayList<>();
+        boolean[] seen = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (seen[i]) continue;
+            List<Integer> component = bfs(i, adjacency, seen, Integer.MAX_VALUE);
+            if (component.size() <= cap) {
+                pieces.add(component);
+            } else {
+                pieces.addAll(split(component, adjacency, cap));
+            }
+        }
+
+        // First fit decreasing: small components share a cluster instead of becoming one diagram each
+        pieces.sort(Comparator.comparingInt((List<Integer> piece) -> piece.size()).reversed());
+        List<List<Integer>> bins = new ArrayList<>();
+        for (List<Integer> piece : pieces) {
+            List<Integer> target = null;
+            for (List<Integer> bin : bins) {
+                if (bin.size() + piece.size() <= cap) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new ArrayList<>();
+                bins.add(target);
+            }
+            target.addAll(piece);
+        }
+
+        int[] clusterOf = new int[n];
+        List<GeminiResponse> clusters = new ArrayList<>(bins.size());
+        for (int c = 0; c < bins.size(); c++) {
+            List<Integer> bin = bins.get(c);
+            bin.sort(null); // keep declaration order inside a cluster
+            List<ClassDetail> members = new ArrayList<>(bin.size());
+            for (int node : bin) {
+                clusterOf[node] = c;
+                members.add(classes.get(node));
+            }
+            GeminiResponse cluster = new GeminiResponse();
+            cluster.setClasses(members);
+            cluster.setRelationships(new ArrayList<>());
+            clusters.add(cluster);
+        }
+
+        Map<String, Integer> crossEdges = new TreeMap<>();
+        for (int e = 0; e < edges.size(); e++) {
+            int from = clusterOf[edges.get(e)[0]];
+            int to = clusterOf[edges.get(e)[1]];
+            if (from == to) {
+                clusters.get(from).getRelationships().add(relationships.get(e));
+            } else {
+                crossEdges.merge(Math.min(from, to) + "-" + Math.max(from, to), 1, Integer::sum);
+            }
+        }
+        return new Partition(clusters, crossEdges);
+    }
+
+    // Cuts an oversized component into breadth-first pieces of at most cap classes, most connected seeds first
+    private List<List<Integer>> split(List<Integer> component, List<List<Integer>> adjacency, int cap) {
+        List<List<Integer>> pieces = new ArrayList<>();
+        Integer[] seeds = component.toArray(new Integer[0]);
+        Arrays.sort(seeds, Comparator.comparingInt((Integer node) -> adjacency.get(node).size()).reversed());
+
+        boolean[] taken = new boolean[adjacency.size()];
+        Arrays.fill(taken, true);
+        for (int node : component) taken[node] = false;
+
+        List<Integer> current = new ArrayList<>();
+        for (int seed : seeds) {
+            if (taken[seed]) continue;
+            current.addAll(bfs(seed, adjacency, taken, cap - current.size()));
+            if (current.size() >= cap) {
+                pieces.add(current);
+                current = new ArrayList<>();
+            }
+        }
+        if (!current.isEmpty()) pieces.add(current);
+        return pieces;
+    }
+
+    // Visits up to limit unvisited nodes reachable from start, marking them as visited
+    private List<Integer> bfs(int start, List<List<Integer>> adjacency, boolean[] visited, int limit) {
+        List<Integer> result = new ArrayList<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        visited[start] = true;
+        queue.add(start);
+        while (!queue.isEmpty() && result.size() < limit) {
+            int node = queue.poll();
+            result.add(node);
+            for (int neighbour : adjacency.get(node)) {
+                if (!visited[neighbour]) {
+                    visited[neighbour] = true;
+                    queue.add(neighbour);
+                }
+            }
+        }
+        // Nodes queued beyond the limit are left for the next piece
+        for (int node : queue) visited[node] = false;
+        return result;
+    }
+
+    private String buildOverview(List<GeminiResponse> clusters, Map<String, Integer> crossEdges) {
+        StringBuilder plantUml = new StringBuilder("@startuml\n\n");
+        plantUml.append("hide empty members\n\n");
+        for (int c = 0; c < clusters.size(); c++) {
+            List<ClassDetail> members = clusters.get(c).getClasses();
+            plantUml.append(String.format("class \"%s\" as C%d <<%d classes>> {\n", clusterName(c), c, members.size()));
+            for (int i = 0; i < Math.min(OVERVIEW_MEMBERS, members.size()); i++) {
+                plantUml.append("  ").append(members.get(i).getName()).append('\n');
+            }
+            if (members.size() > OVERVIEW_MEMBERS) {
+                plantUml.append("  ... +").append(members.size() - OVERVIEW_MEMBERS).append('\n');
+            }
+            plantUml.append("}\n\n");
+        }
+        crossEdges.forEach((pair, count) -> {
+            String[] ends = pair.split("-");
+            plantUml.append(String.format("C%s -- C%s : %d relationship%s\n", ends[0], ends[1], count, count > 1 ? "s" : ""));
+        });
+        plantUml.append("\n@enduml");
+        return plantUml.toString();
+    }
+
+    private String render(GenerationContext context, String source) {
+        return GenerationContext.callWith(context, () -> {
+            try {
+                return renderService.renderSvg(source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Same ends as PlantUMLGeneratorService draws: container/part for aggregation and composition when given
+    private static String[] ends(RelationshipDetail rel) {
+        boolean wholePart = ("Aggregation".equalsIgnoreCase(rel.getType()) || "Composition".equalsIgnoreCase(rel.getType()))
+                && StringUtils.hasText(rel.getContainer()) && StringUtils.hasText(rel.getPart());
+        return wholePart
+                ? new String[]{rel.getContainer(), rel.getPart()}
+                : new String[]{rel.getSource(), rel.getTarget()};
+    }
+
+    private static int nodeId(String name, Map<String, Integer> ids, List<ClassDetail> classes) {
+        return ids.computeIfAbsent(normalize(name), k -> {
+            ClassDetail implicit = new ClassDetail();
+            implicit.setName(name.trim());
+            classes.add(implicit);
+            return classes.size() - 1;
+        });
+    }
+
+    private static String clusterName(int index) {
+        return "Cluster " + (index + 1);
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+}
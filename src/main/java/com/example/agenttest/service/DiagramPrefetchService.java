@@ -0,0 +1,185 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Speculative diagram generation (opt-in with {@code diagram.prefetch.enabled}).
+ * <p>
+ * Once a cahier de charge has been generated, the Gemini diagram output for the same text is requested in
+ * the background at {@link Priority#BACKGROUND} priority and kept for {@code diagram.prefetch.ttl-seconds}.
+ * A later diagram request for that text takes the result, or waits for the prefetch still in flight,
+ * instead of calling Gemini again. A request that waits raises the prefetch to its own priority, so it is not
+ * stuck behind bulk traffic, and if its deadline passes first the prefetch stays available for the next
+ * request. Prefetches nobody claims before they expire count as wasted work.
+ */
+@Service
+public class DiagramPrefetchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramPrefetchService.class);
+
+    private record Prefetch(CompletableFuture<String> result, GenerationContext context, long expiresAt) {
+        boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    private final GeminiService geminiService;
+    private final GeminiCallScheduler callScheduler;
+    private final ExecutorService executor;
+    private final Map<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+
+    @Value("${diagram.prefetch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${diagram.prefetch.ttl-seconds:120}")
+    private long ttlSeconds;
+
+    @Value("${diagram.prefetch.max-entries:100}")
+    private int maxEntries;
+
+    @Autowired
+    public DiagramPrefetchService(GeminiService geminiService, GeminiCallScheduler callScheduler,
+                                  @Qualifier("diagramPrefetchExecutor") ExecutorService executor) {
+        this.geminiService = geminiService;
+        this.callScheduler = callScheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts generating the diagram output for the given text in the background, if enabled and not already started.
+     */
+    public void prefetch(String text) {
+        if (!enabled || text == null || text.isBlank()) return;
+        evictExpired();
+        if (prefetches.size() >= maxEntries) {
+            logger.debug("Prefetch store full, skipping speculative diagram generation");
+            return;
+        }
+
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+        // Low priority, and pointless once the stored result would have expired
+        GenerationContext context = new GenerationContext(GenerationContext.current().getClientId(), Priority.BACKGROUND, expiresAt);
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (prefetches.putIfAbsent(key(text), new Prefetch(result, context, expiresAt)) != null) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(GenerationContext.callWith(context, () -> geminiService.generateCahierDeCharge(text)));
+                } catch (RuntimeException e) {
+                    logger.debug("Speculative diagram generation failed: {}", e.getMessage());
+                    result.completeExceptionally(e);
+                }
+            });
+            started.increment();
+        } catch (RejectedExecutionException e) {
+            prefetches.remove(key(text));
+        }
+    }
+
+    /**
+     * Takes the prefetched Gemini output for the text, waiting for it if it is still in flight.
+     *
+     * @return the output, or empty when there is no usable prefetch and Gemini must be called
+     */
+    public Optional<String> claim(String text) {
+        if (!enabled || text == null) return Optional.empty();
+        Prefetch prefetch = prefetches.remove(key(text));
+        if (prefetch == null || prefetch.isExpired()) {
+            if (prefetch != null) discard(prefetch);
+            misses.increment();
+            return Optional.empty();
+        }
+
+        boolean inFlight = !prefetch.result().isDone();
+        GenerationContext context = GenerationContext.current();
+        if (inFlight && callScheduler.promote(prefetch.context(), context.getPriority())) {
+            promoted.increment();
+        }
+        try {
+            String output = prefetch.result().get(context.remainingNanos(), TimeUnit.NANOSECONDS);
+            (inFlight ? joins : hits).increment();
+            return Optional.ofNullable(output);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            keep(text, prefetch);
+            return Optional.empty();
+        } catch (TimeoutException e) {
+            // This request gave up, the call goes on: keep it for the next request instead of starting another one
+            keep(text, prefetch);
+            misses.increment();
+            return Optional.empty();
+        } catch (Exception e) {
+            // Failed: fall back to a regular call
+            wasted.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long served = hits.sum() + joins.sum();
+        long requests = served + misses.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("pending", prefetches.size());
+        result.put("started", started.sum());
+        result.put("hits", hits.sum());
+        result.put("joinedInFlight", joins.sum());
+        result.put("promoted", promoted.sum());
+        result.put("misses", misses.sum());
+        result.put("hitRate", requests == 0 ? 0.0 : served / (double) requests);
+        result.put("wasted", wasted.sum());
+        return result;
+    }
+
+    private void evictExpired() {
+        Iterator<Prefetch> it = prefetches.values().iterator();
+        while (it.hasNext()) {
+            Prefetch prefetch = it.next();
+            if (prefetch.isExpired()) {
+                it.remove();
+                discard(prefetch);
+            }
+        }
+    }
+
+    private void keep(String text, Prefetch prefetch) {
+        if (prefetches.putIfAbsent(key(text), prefetch) != null) discard(prefetch);
+    }
+
+    private void discard(Prefetch prefetch) {
+        wasted.increment();
+        prefetch.result().cancel(false);
+    }
+
+    private static String key(String text) {
+        return text.trim();
+    }
+}
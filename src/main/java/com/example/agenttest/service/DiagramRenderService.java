@@ -0,0 +1,222 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import jakarta.annotation.PostConstruct;
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+import net.sourceforge.plantuml.dot.GraphvizUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders PlantUML sources to SVG and chooses the layout engine for each render.
+ * <p>
+ * Small diagrams are laid out in-process with Smetana (PlantUML's pure-Java port of Graphviz),
+ * which avoids forking a {@code dot} process per request and works on hosts without Graphviz.
+ * Larger diagrams go to the external {@code dot} executable when it is installed; the number of
+ * concurrent {@code dot} processes is capped so a burst of renders cannot fork without limit.
+ */
+@Service
+public class DiagramRenderService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramRenderService.class);
+
+    // Matches class-like declarations as produced by PlantUMLGeneratorService or written by Gemini
+    private static final Pattern CLASS_DECLARATION_PATTERN = Pattern.compile(
+            "^\\s*(?:abstract\\s+class|abstract|class|interface|enum)\\s+\\S",
+            Pattern.MULTILINE);
+
+    public enum LayoutEngine { SMETANA, DOT }
+
+    @Value("${plantuml.layout.engine:auto}")
+    private String configuredEngine; // "auto", "smetana" or "dot"
+
+    @Value("${plantuml.layout.smetana-max-classes:40}")
+    private int smetanaMaxClasses;
+
+    @Value("${plantuml.layout.dot-workers:4}")
+    private int dotWorkers;
+
+    private Semaphore dotSlots;
+    private volatile boolean dotAvailable;
+
+    private final Map<LayoutEngine, RenderStats> stats = new EnumMap<>(LayoutEngine.class);
+    private final DeadlineService deadlineService;
+
+    @Autowired
+    public DiagramRenderService(DeadlineService deadlineService) {
+        this.deadlineService = deadlineService;
+        for (LayoutEngine engine : LayoutEngine.values()) {
+            stats.put(engine, new RenderStats());
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        this.dotSlots = new Semaphore(Math.max(1, dotWorkers), true);
+        this.dotAvailable = detectDot();
+        logger.info("PlantUML layout engine: {} (dot available: {}, smetana up to {} classes, {} dot workers)",
+                configuredEngine, dotAvailable, smetanaMaxClasses, dotWorkers);
+    }
+
+    /**
+     * Renders the given PlantUML source to SVG with the engine selected for its size.
+     *
+     * @param plantUmlSource PlantUML source code, starting with {@code @startuml}
+     * @return SVG string representation
+     * @throws IOException if SVG generation fails
+     */
+    public String renderSvg(String plantUmlSource) throws IOException {
+        return renderSvg(plantUmlSource, selectEngine(plantUmlSource));
+    }
+
+    /**
+     * Renders the given PlantUML source to SVG with an explicit layout engine.
+     * Falls back to Smetana when {@code dot} is requested but not installed.
+     * Nothing is rendered once the request deadline has passed.
+     */
+    public String renderSvg(String plantUmlSource, LayoutEngine engine) throws IOException {
+        deadlineService.checkRemaining("render");
+        if (engine == LayoutEngine.DOT && !dotAvailable) {
+            logger.warn("Graphviz 'dot' is not available, rendering with Smetana instead.");
+            engine = LayoutEngine.SMETANA;
+        }
+
+        long start = System.nanoTime();
+        String svg;
+        if (engine == LayoutEngine.DOT) {
+            svg = renderWithDotWorker(plantUmlSource);
+        } else {
+            svg = render(withSmetanaLayout(plantUmlSource));
+        }
+        long elapsed = System.nanoTime() - start;
+        stats.get(engine).record(elapsed);
+        logger.debug("Rendered diagram with {} in {} ms", engine, elapsed / 1_000_000);
+        return svg;
+    }
+
+    public LayoutEngine selectEngine(String plantUmlSource) {
+        String engine = configuredEngine == null ? "auto" : configuredEngine.trim().toLowerCase();
+        switch (engine) {
+            case "smetana":
+                return LayoutEngine.SMETANA;
+            case "dot":
+                return dotAvailable ? LayoutEngine.DOT : LayoutEngine.SMETANA;
+            default:
+                if (!dotAvailable) return LayoutEngine.SMETANA;
+                return countClasses(plantUmlSource) <= smetanaMaxClasses ? LayoutEngine.SMETANA : LayoutEngine.DOT;
+        }
+    }
+
+    public Map<String, Object> getRenderStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("configuredEngine", configuredEngine);
+        result.put("dotAvailable", dotAvailable);
+        result.put("smetanaMaxClasses", smetanaMaxClasses);
+        result.put("dotWorkers", dotWorkers);
+        result.put("dotWorkersBusy", dotSlots == null ? 0 : dotWorkers - dotSlots.availablePermits());
+        for (Map.Entry<LayoutEngine, RenderStats> entry : stats.entrySet()) {
+            result.put(entry.getKey().name().toLowerCase(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    int countClasses(String plantUmlSource) {
+        if (plantUmlSource == null) return 0;
+        Matcher matcher = CLASS_DECLARATION_PATTERN.matcher(plantUmlSource);
+        int count = 0;
+        while (matcher.find()) count++;
+        return count;
+    }
+
+    private String renderWithDotWorker(String plantUmlSource) throws IOException {
+        try {
+            long remaining = GenerationContext.current().remainingNanos();
+            if (!dotSlots.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                throw deadlineService.expired("render-queue");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a dot worker");
+        }
+        try {
+            return render(plantUmlSource);
+        } finally {
+            dotSlots.release();
+        }
+    }
+
+    private String render(String plantUmlSource) throws IOException {
+        SourceStringReader reader = new SourceStringReader(plantUmlSource);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        // Write the first image to "os"
+        // We specify FileFormat.SVG for direct SVG output
+        reader.outputImage(os, new FileFormatOption(FileFormat.SVG));
+
+        return os.toString();
+    }
+
+    /**
+     * Adds the Smetana layout pragma right after {@code @startuml} unless the source already selects a layout.
+     */
+    private String withSmetanaLayout(String plantUmlSource) {
+        if (plantUmlSource.contains("!pragma layout")) return plantUmlSource;
+        int start = plantUmlSource.indexOf("@startuml");
+        if (start == -1) return plantUmlSource;
+        int lineEnd = plantUmlSource.indexOf('\n', start);
+        if (lineEnd == -1) return plantUmlSource;
+        return plantUmlSource.substring(0, lineEnd + 1)
+                + "!pragma layout smetana\n"
+                + plantUmlSource.substring(lineEnd + 1);
+    }
+
+    private boolean detectDot() {
+        try {
+            File dot = GraphvizUtils.getDotExe();
+            return dot != null && dot.exists() && dot.canExecute();
+        } catch (Exception e) {
+            logger.debug("Could not locate Graphviz 'dot': {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static final class RenderStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("renders", n);
+            result.put("avgMillis", n == 0 ? 0.0 : totalNanos.sum() / (double) n / 1_000_000);
+            result.put("maxMillis", maxNanos.get() / 1_000_000.0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.session.DiagramPatchOperation;
+import com.example.agenttest.exception.DiagramSessionNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps diagram models in memory so small corrections can be applied and re-rendered
+ * without another round trip through Gemini.
+ */
+@Service
+public class DiagramSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramSessionService.class);
+
+    private final PlantUMLGeneratorService plantUMLGenerator;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Value("${diagram.sessions.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Value("${diagram.sessions.max-sessions:1000}")
+    private int maxSessions;
+
+    private static final class Session {
+        private final DiagramModel model; // guarded by the session
+        private volatile long lastAccess = System.nanoTime();
+
+        private Session(DiagramModel model) {
+            this.model = model;
+        }
+    }
+
+    @Autowired
+    public DiagramSessionService(PlantUMLGeneratorService plantUMLGenerator) {
+        this.plantUMLGenerator = plantUMLGenerator;
+    }
+
+    /**
+     * Starts a new edit session from a class model.
+     *
+     * @return the new session id
+     */
+    public String createSession(GeminiResponse diagramData) {
+        evictExpired();
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("Too many open diagram sessions, try again later");
+        }
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(sessionId, new Session(DiagramModel.from(diagramData)));
+        logger.info("Created diagram session {}", sessionId);
+        return sessionId;
+    }
+
+    /**
+     * Applies the operations in order and returns the regenerated PlantUML source.
+     * The patch is all-or-nothing: if an operation fails, the ones before it are rolled back.
+     *
+     * @throws IllegalArgumentException if an operation is invalid; the session is left unchanged
+     */
+    public String applyPatch(String sessionId, List<DiagramPatchOperation> operations) {
+        Session session = getSession(sessionId);
+        synchronized (session) {
+            if (operations != null && !operations.isEmpty()) {
+                session.model.applyAll(operations);
+            }
+            return plantUMLGenerator.generatePlantUML(session.model.toGeminiResponse());
+        }
+    }
+
+    public String getPlantUML(String sessionId) {
+        Session session = getSession(sessionId);
+        synchronized (session) {
+            return plantUMLGenerator.generatePlantUML(session.model.toGeminiResponse());
+        }
+    }
+
+    /**
+     * Returns a copy of the session's class model; changing it does not affect the session.
+     */
+    public GeminiResponse getModel(String sessionId) {
+        Session session = getSession(sessionId);
+        synchronized (session) {
+            return session.model.toGeminiResponse();
+        }
+    }
+
+    public void closeSession(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    private Session getSession(String sessionId) {
+        Session session = sessionId == null ? null : sessions.get(sessionId);
+        if (session == null || isExpired(session)) {
+            if (session != null) sessions.remove(sessionId);
+            throw new DiagramSessionNotFoundException(sessionId);
+        }
+        session.lastAccess = System.nanoTime();
+        return session;
+    }
+
+    private boolean isExpired(Session session) {
+        return System.nanoTime() - session.lastAccess > TimeUnit.MINUTES.toNanos(ttlMinutes);
+    }
+
+    private void evictExpired() {
+        sessions.values().removeIf(this::isExpired);
+    }
+}
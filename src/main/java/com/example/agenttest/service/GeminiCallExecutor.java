@@ -0,0 +1,62 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.CircuitOpenException;
+import com.example.agenttest.exception.DeadlineExceededException;
+import com.example.agenttest.exception.GeminiApiException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.function.Function;
+
+/**
+ * Runs every upstream Gemini call the same way: picks the model with {@link GeminiModelRouter}, checks the
+ * request deadline and the circuit breaker before queueing, then sends the request through the
+ * {@link GeminiCallScheduler}, the {@link GeminiCircuitBreaker} and the router statistics, in that order.
+ */
+@Service
+public class GeminiCallExecutor {
+
+    private static final String STAGE = "gemini-call";
+
+    private final GeminiCallScheduler callScheduler;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final DeadlineService deadlineService;
+    private final GeminiModelRouter modelRouter;
+
+    @Autowired
+    public GeminiCallExecutor(GeminiCallScheduler callScheduler, GeminiCircuitBreaker circuitBreaker,
+                              DeadlineService deadlineService, GeminiModelRouter modelRouter) {
+        this.callScheduler = callScheduler;
+        this.circuitBreaker = circuitBreaker;
+        this.deadlineService = deadlineService;
+        this.modelRouter = modelRouter;
+    }
+
+    /**
+     * Sends one request to Gemini on behalf of the current {@link GenerationContext}.
+     *
+     * @param endpoint    logical caller, used for model routing, e.g. "cdc" or "diagram"
+     * @param promptChars size of the prompt, used for routing and as the scheduling cost
+     * @param request     performs the HTTP call with the chosen model
+     * @throws DeadlineExceededException if the request deadline passed before or during the call
+     * @throws CircuitOpenException      if the circuit breaker rejects the call
+     * @throws GeminiApiException        if the call failed on I/O (connection refused, read timeout...)
+     */
+    public <T> T execute(String endpoint, int promptChars, Function<String, T> request) {
+        String model = modelRouter.route(endpoint, promptChars);
+        deadlineService.checkRemaining(STAGE);
+        circuitBreaker.checkNotOpen(); // Fail fast instead of queueing while Gemini is down
+        GenerationContext context = GenerationContext.current();
+        try {
+            return callScheduler.execute(context.getClientId(), context.getPriority(), promptChars,
+                    () -> circuitBreaker.execute(() -> modelRouter.execute(endpoint, model,
+                            () -> request.apply(model))));
+        } catch (ResourceAccessException e) {
+            // Read timeout set from the request deadline: the caller has given up
+            if (context.isExpired()) throw deadlineService.expired(STAGE);
+            throw new GeminiApiException("Gemini call failed: " + e.getMessage(), e);
+        }
+    }
+}
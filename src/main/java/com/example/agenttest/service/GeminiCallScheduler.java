@@ -0,0 +1,329 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.GeminiApiException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admits upstream Gemini calls under a global concurrency cap.
+ * <p>
+ * Waiting calls are queued per priority. Interactive calls are always dispatched before bulk and background
+ * ones, and the last {@code gemini.scheduler.reserved-interactive} slots are kept for them, so a bulk run can
+ * never make an interactive request wait for a free slot. Within a priority, clients share the slots by
+ * weighted fair queueing: every call gets a virtual finish tag of {@code max(virtualTime(priority),
+ * lastFinish(client, priority)) + cost / weight(client)} and the smallest tag runs first. Each priority
+ * keeps its own virtual time, since tags are only ever compared within one priority queue. A call whose
+ * request deadline passes while it waits leaves the queue without ever reaching Gemini. Once the priority of
+ * a {@link GenerationContext} has been raised with {@link #promote}, its calls queue at least at that
+ * priority, including the ones already waiting.
+ */
+@Service
+public class GeminiCallScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiCallScheduler.class);
+    private static final int MAX_IDLE_CLIENTS = 1024;
+
+    public enum Priority {
+        INTERACTIVE, BULK, BACKGROUND;
+
+        public static Priority parse(String value) {
+            if (!StringUtils.hasText(value)) return INTERACTIVE;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return INTERACTIVE;
+            }
+        }
+    }
+
+    @Value("${gemini.scheduler.max-concurrent:8}")
+    private int maxConcurrent;
+
+    @Value("${gemini.scheduler.reserved-interactive:2}")
+    private int reservedInteractive;
+
+    @Value("${gemini.scheduler.client-weights:}")
+    private String clientWeightsConfig; // e.g. "frontend=4,integration=1"
+
+    private final Map<String, Double> clientWeights = new HashMap<>();
+    private final DeadlineService deadlineService;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, PriorityQueue<Ticket>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, ClientState> clients = new HashMap<>();
+    private final double[] virtualTime = new double[Priority.values().length];
+    private long sequence;
+    private int inFlight;
+
+    @Autowired
+    public GeminiCallScheduler(DeadlineService deadlineService) {
+        this.deadlineService = deadlineService;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new PriorityQueue<>(Comparator
+                    .comparingDouble((Ticket t) -> t.finishTag)
+                    .thenComparingLong(t -> t.sequence)));
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        if (StringUtils.hasText(clientWeightsConfig)) {
+            for (String entry : clientWeightsConfig.split(",")) {
+                String[] pair = entry.split("=");
+                if (pair.length == 2) {
+                    clientWeights.put(pair[0].trim(), Double.parseDouble(pair[1].trim()));
+                }
+            }
+        }
+        reservedInteractive = Math.min(Math.max(0, reservedInteractive), Math.max(0, maxConcurrent - 1));
+        logger.info("Gemini call scheduler: {} concurrent calls, {} reserved for interactive traffic, weights {}",
+                maxConcurrent, reservedInteractive, clientWeights);
+    }
+
+    /**
+     * Waits for a slot according to the scheduling policy, then runs the call on the current thread.
+     *
+     * @param clientId caller identity used for fair sharing
+     * @param priority traffic class of the call
+     * @param cost     relative cost of the call, e.g. the prompt length
+     * @param call     the upstream call
+     * @throws GeminiApiException if the thread is interrupted while waiting
+     * @throws com.example.agenttest.exception.DeadlineExceededException if the request deadline passes while waiting
+     */
+    public <T> T execute(String clientId, Priority priority, long cost, Supplier<T> call) {
+        Ticket ticket = enqueue(GenerationContext.current(), clientId, priority, cost);
+        awaitTurn(ticket);
+        try {
+            return call.get();
+        } finally {
+            release(ticket);
+        }
+    }
+
+    /**
+     * Raises the priority of the context, moving its calls that are still waiting for a slot.
+     *
+     * @return true if a waiting call was moved
+     */
+    public boolean promote(GenerationContext context, Priority priority) {
+        lock.lock();
+        try {
+            // Under the lock, so that a call enqueued concurrently either sees the new priority or gets moved
+            context.raisePriority(priority);
+            Priority target = context.getPriority();
+            boolean moved = false;
+            for (Priority lower : Priority.values()) {
+                if (lower.ordinal() <= target.ordinal()) continue;
+                Iterator<Ticket> it = queues.get(lower).iterator();
+                while (it.hasNext()) {
+                    Ticket ticket = it.next();
+                    if (ticket.context != context) continue;
+                    it.remove();
+                    ticket.priority = target;
+                    ticket.finishTag = nextFinishTag(clients.get(ticket.clientId), target, ticket.cost);
+                    queues.get(target).add(ticket);
+                    moved = true;
+                }
+            }
+            if (moved) dispatch();
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("maxConcurrent", maxConcurrent);
+            result.put("reservedInteractive", reservedInteractive);
+            result.put("inFlight", inFlight);
+            Map<String, Object> queued = new LinkedHashMap<>();
+            for (Map.Entry<Priority, PriorityQueue<Ticket>> entry : queues.entrySet()) {
+                queued.put(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue().size());
+            }
+            result.put("queued", queued);
+            Map<String, Object> perClient = new TreeMap<>();
+            for (Map.Entry<String, ClientState> entry : clients.entrySet()) {
+                perClient.put(entry.getKey(), entry.getValue().snapshot());
+            }
+            result.put("clients", perClient);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Ticket enqueue(GenerationContext context, String clientId, Priority requested, long cost) {
+        lock.lock();
+        try {
+            Priority priority = context.isRaised() && context.getPriority().ordinal() < requested.ordinal()
+                    ? context.getPriority() : requested;
+            ClientState client = clients.computeIfAbsent(clientId, this::newClientState);
+            Ticket ticket = new Ticket(lock.newCondition(), context, clientId, priority, cost,
+                    nextFinishTag(client, priority, cost), sequence++);
+            client.queued++;
+            queues.get(priority).add(ticket);
+            dispatch();
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private double nextFinishTag(ClientState client, Priority priority, long cost) {
+        double start = Math.max(virtualTime[priority.ordinal()], client.lastFinish[priority.ordinal()]);
+        double finishTag = start + Math.max(1, cost) / client.weight;
+        client.lastFinish[priority.ordinal()] = finishTag;
+        return finishTag;
+    }
+
+    private void awaitTurn(Ticket ticket) {
+        lock.lock();
+        try {
+            while (!ticket.granted) {
+                long remaining = ticket.context.remainingNanos();
+                if (remaining <= 0) {
+                    abandon(ticket);
+                    throw deadlineService.expired("gemini-queue");
+                }
+                ticket.turn.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            abandon(ticket);
+            Thread.currentThread().interrupt();
+            throw new GeminiApiException("Interrupted while waiting for a Gemini call slot", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held: withdraws a ticket whose caller stopped waiting
+    private void abandon(Ticket ticket) {
+        if (!ticket.granted) {
+            queues.get(ticket.priority).remove(ticket);
+            clients.get(ticket.clientId).queued--;
+        } else {
+            // Slot was granted concurrently; hand it back
+            inFlight--;
+            dispatch();
+        }
+    }
+
+    private void release(Ticket ticket) {
+        lock.lock();
+        try {
+            inFlight--;
+            dispatch();
+            evictIdleClients();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held: grants slots to the best waiting tickets while capacity allows
+    private void dispatch() {
+        for (Priority priority : Priority.values()) {
+            PriorityQueue<Ticket> queue = queues.get(priority);
+            int limit = priority == Priority.INTERACTIVE ? maxConcurrent : maxConcurrent - reservedInteractive;
+            while (!queue.isEmpty() && inFlight < limit) {
+                Ticket ticket = queue.poll();
+                ClientState client = clients.get(ticket.clientId);
+                client.queued--;
+                client.recordWait(System.nanoTime() - ticket.enqueuedAt);
+                // Self-clocked: tag of the call entering service
+                virtualTime[priority.ordinal()] = Math.max(virtualTime[priority.ordinal()], ticket.finishTag);
+                inFlight++;
+                ticket.granted = true;
+                ticket.turn.signal();
+            }
+            if (!queue.isEmpty()) return; // Lower priorities never overtake a waiting higher priority
+        }
+    }
+
+    private void evictIdleClients() {
+        if (clients.size() <= MAX_IDLE_CLIENTS) return;
+        Iterator<ClientState> it = clients.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().queued == 0) it.remove();
+        }
+    }
+
+    private ClientState newClientState(String clientId) {
+        return new ClientState(clientWeights.getOrDefault(clientId, 1.0));
+    }
+
+    private static final class Ticket {
+        private final Condition turn;
+        private final GenerationContext context;
+        private final String clientId;
+        private final long cost;
+        private final long sequence;
+        private final long enqueuedAt = System.nanoTime();
+        private Priority priority; // raised by promote, only while queued
+        private double finishTag;
+        private boolean granted;
+
+        private Ticket(Condition turn, GenerationContext context, String clientId, Priority priority, long cost,
+                       double finishTag, long sequence) {
+            this.turn = turn;
+            this.context = context;
+            this.clientId = clientId;
+            this.priority = priority;
+            this.cost = cost;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class ClientState {
+        private final double weight;
+        private final double[] lastFinish = new double[Priority.values().length];
+        private int queued;
+        private long calls;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        private ClientState(double weight) {
+            this.weight = weight > 0 ? weight : 1.0;
+        }
+
+        void recordWait(long nanos) {
+            calls++;
+            totalWaitNanos += nanos;
+            maxWaitNanos = Math.max(maxWaitNanos, nanos);
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("weight", weight);
+            result.put("queueDepth", queued);
+            result.put("calls", calls);
+            result.put("avgWaitMillis", calls == 0 ? 0.0 : totalWaitNanos / (double) calls / TimeUnit.MILLISECONDS.toNanos(1));
+            result.put("maxWaitMillis", maxWaitNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+            return result;
+        }
+    }
+}
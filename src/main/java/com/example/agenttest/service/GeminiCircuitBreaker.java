@@ -0,0 +1,228 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.CircuitOpenException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker around the upstream Gemini calls.
+ * <p>
+ * Outcomes of the last {@code window-size} calls are kept in a ring buffer. The circuit opens when, over at
+ * least {@code minimum-calls} calls, the failure rate or the rate of calls slower than {@code slow-call-ms}
+ * reaches its threshold. While open, calls fail fast with {@link CircuitOpenException}. After
+ * {@code open-duration-ms} the circuit turns half-open and lets {@code half-open-probes} calls through:
+ * if they all succeed within {@code slow-call-ms} it closes again, and any failure or slow probe re-opens it.
+ * A call aborted because the caller's own deadline passed is recorded as slow once it had been running for
+ * {@code slow-call-ms} (a hung upstream shows up this way, since the read timeout is the deadline); cut off
+ * earlier, it says nothing about Gemini's health and is dropped. Outcomes only count in the state they were
+ * admitted in: a call still running when the circuit changes state is ignored when it returns, so calls
+ * admitted while closed can never act as half-open probes.
+ */
+@Service
+public class GeminiCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiCircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // State period a call was admitted in; its outcome is dropped once the circuit has moved on
+    private record Permit(long epoch) { }
+
+    @Value("${gemini.circuit-breaker.window-size:20}")
+    private int windowSize;
+
+    @Value("${gemini.circuit-breaker.minimum-calls:10}")
+    private int minimumCalls;
+
+    @Value("${gemini.circuit-breaker.failure-rate-threshold:50}")
+    private int failureRateThreshold; // percent
+
+    @Value("${gemini.circuit-breaker.slow-call-ms:20000}")
+    private long slowCallMillis;
+
+    @Value("${gemini.circuit-breaker.slow-call-rate-threshold:80}")
+    private int slowCallRateThreshold; // percent
+
+    @Value("${gemini.circuit-breaker.open-duration-ms:30000}")
+    private long openDurationMillis;
+
+    @Value("${gemini.circuit-breaker.half-open-probes:3}")
+    private int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private long epoch; // incremented on every state transition
+    private byte[] outcomes; // 0 = success, 1 = failure, 2 = slow (success, or cut off by the deadline)
+    private int recorded;
+    private int next;
+    private long openedAt;
+    private int probesInFlight;
+    private int probesSucceeded;
+    private long rejectedCalls;
+    private long timesOpened;
+
+    @PostConstruct
+    void init() {
+        this.outcomes = new byte[Math.max(1, windowSize)];
+    }
+
+    /**
+     * Runs the call if the circuit allows it and records its outcome.
+     *
+     * @throws CircuitOpenException if the circuit is open
+     */
+    public <T> T execute(Supplier<T> call) {
+        Permit permit = acquirePermission();
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            onSuccess(permit, (System.nanoTime() - start) / 1_000_000);
+            return result;
+        } catch (RuntimeException e) {
+            if (GenerationContext.current().isExpired()) {
+                onAbandoned(permit, (System.nanoTime() - start) / 1_000_000);
+            } else {
+                onFailure(permit);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cheap check, without taking a half-open probe, used to fail fast before queueing for a call slot.
+     *
+     * @throws CircuitOpenException if the circuit is open
+     */
+    public synchronized void checkNotOpen() {
+        if (state == State.OPEN && !openDurationElapsed()) {
+            rejectedCalls++;
+            throw new CircuitOpenException("AI service temporarily unavailable (circuit open)");
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        int failures = 0;
+        int slow = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (outcomes[i] == 1) failures++;
+            if (outcomes[i] == 2) slow++;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("state", state);
+        result.put("windowCalls", recorded);
+        result.put("windowFailures", failures);
+        result.put("windowSlowCalls", slow);
+        result.put("rejectedCalls", rejectedCalls);
+        result.put("timesOpened", timesOpened);
+        return result;
+    }
+
+    private synchronized Permit acquirePermission() {
+        if (state == State.OPEN) {
+            if (!openDurationElapsed()) {
+                rejectedCalls++;
+                throw new CircuitOpenException("AI service temporarily unavailable (circuit open)");
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= halfOpenProbes) {
+                rejectedCalls++;
+                throw new CircuitOpenException("AI service temporarily unavailable (circuit half-open)");
+            }
+            probesInFlight++;
+        }
+        return new Permit(epoch);
+    }
+
+    private synchronized void onSuccess(Permit permit, long elapsedMillis) {
+        if (permit.epoch() != epoch) return;
+        if (state == State.HALF_OPEN) {
+            if (elapsedMillis >= slowCallMillis) {
+                // Answered, but too slowly to show a recovery
+                transitionTo(State.OPEN);
+                return;
+            }
+            probesInFlight--;
+            probesSucceeded++;
+            if (probesSucceeded >= halfOpenProbes) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(elapsedMillis >= slowCallMillis ? (byte) 2 : (byte) 0);
+    }
+
+    private synchronized void onAbandoned(Permit permit, long elapsedMillis) {
+        if (permit.epoch() != epoch) return;
+        boolean slow = elapsedMillis >= slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            // A probe still unanswered after slow-call-ms does not show a recovery
+            if (slow) {
+                transitionTo(State.OPEN);
+            } else {
+                probesInFlight--;
+            }
+            return;
+        }
+        if (slow) record((byte) 2);
+    }
+
+    private synchronized void onFailure(Permit permit) {
+        if (permit.epoch() != epoch) return;
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+        record((byte) 1);
+    }
+
+    private void record(byte outcome) {
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if (recorded < outcomes.length) recorded++;
+        if (state != State.CLOSED || recorded < minimumCalls) return;
+
+        int failures = 0;
+        int slow = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (outcomes[i] == 1) failures++;
+            if (outcomes[i] == 2) slow++;
+        }
+        if (failures * 100 >= failureRateThreshold * recorded || slow * 100 >= slowCallRateThreshold * recorded) {
+            logger.warn("Opening Gemini circuit: {} failures and {} slow calls over the last {} calls", failures, slow, recorded);
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        logger.info("Gemini circuit breaker: {} -> {}", state, newState);
+        state = newState;
+        epoch++;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+        if (newState == State.OPEN) {
+            openedAt = System.nanoTime();
+            timesOpened++;
+        }
+        if (newState == State.CLOSED) {
+            recorded = 0;
+            next = 0;
+        }
+    }
+
+    private boolean openDurationElapsed() {
+        return System.nanoTime() - openedAt >= openDurationMillis * 1_000_000;
+    }
+}
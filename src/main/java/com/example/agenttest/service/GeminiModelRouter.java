@@ -0,0 +1,248 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Chooses the Gemini model for each call from the input size, the calling endpoint and the recent
+ * latency and error rate of each model on that endpoint.
+ * <p>
+ * Routes are ordered lists of {@code model:maxInputChars:sloMillis} entries, fastest model first, read
+ * from {@code gemini.routing.<endpoint>.models} or else {@code gemini.routing.models}. A call goes to the
+ * first model that accepts its input size and is within its SLO: the p90 latency and the error rate over
+ * the samples of the last {@code gemini.routing.window-seconds}. Samples are kept per endpoint and model,
+ * since prompt sizes and output lengths differ a lot between endpoints (a long streamed "combined" call
+ * says nothing about a short "cdc" call on the same model). The last model of a route is always
+ * eligible. A model that breached its SLO gets traffic again once its bad samples have aged out.
+ * Routes are parsed at startup, so a malformed route fails the application context rather than the first call.
+ */
+@Service
+public class GeminiModelRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiModelRouter.class);
+
+    // Upper bounds (ms) of the latency histogram buckets; the last bucket is unbounded
+    private static final long[] HISTOGRAM_BOUNDS = {250, 500, 1000, 2000, 5000, 10000, 20000, 60000};
+    private static final int WINDOW_SAMPLES = 128;
+    private static final List<String> ENDPOINTS = List.of("cdc", "diagram", "class-model", "combined");
+
+    private record Route(String model, int maxInputChars, long sloMillis) { }
+
+    private record StatsKey(String endpoint, String model) { }
+
+    private final Environment environment;
+    private final Map<String, List<Route>> routes = new ConcurrentHashMap<>();
+    private final Map<StatsKey, ModelStats> modelStats = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> decisions = new ConcurrentHashMap<>();
+
+    @Value("${gemini.api.model-name}")
+    private String defaultModel;
+
+    @Value("${gemini.routing.models:}")
+    private String defaultRoutes;
+
+    @Value("${gemini.routing.window-seconds:300}")
+    private long windowSeconds;
+
+    @Value("${gemini.routing.min-samples:5}")
+    private int minSamples;
+
+    @Value("${gemini.routing.max-error-rate:0.5}")
+    private double maxErrorRate;
+
+    @Autowired
+    public GeminiModelRouter(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    void init() {
+        parseRoutes("gemini.routing.models", defaultRoutes);
+        for (String endpoint : ENDPOINTS) {
+            routes.put(endpoint, parseRoutes(endpoint));
+        }
+    }
+
+    /**
+     * Picks the model for a call.
+     *
+     * @param endpoint   logical caller, e.g. "cdc" or "diagram"
+     * @param inputChars size of the prompt
+     */
+    public String route(String endpoint, int inputChars) {
+        List<Route> candidates = routes.computeIfAbsent(endpoint, this::parseRoutes);
+        String chosen = candidates.get(candidates.size() - 1).model();
+        for (int i = 0; i < candidates.size() - 1; i++) {
+            Route route = candidates.get(i);
+            if (route.maxInputChars() > 0 && inputChars > route.maxInputChars()) continue;
+            if (!withinSlo(endpoint, route)) {
+                logger.debug("Skipping model {} for {}: outside its SLO", route.model(), endpoint);
+                continue;
+            }
+            chosen = route.model();
+            break;
+        }
+        decisions.computeIfAbsent(endpoint + " -> " + chosen, k -> new LongAdder()).increment();
+        return chosen;
+    }
+
+    /**
+     * Runs an upstream call made for the endpoint with the given model and records its latency and outcome.
+     * A call cut short by the caller's own deadline is recorded as a success whose latency is the time it
+     * had been running: a lower bound, but leaving it out would hide a model that hangs until the deadline.
+     */
+    public <T> T execute(String endpoint, String model, Supplier<T> call) {
+        GenerationContext.current().markCalledUpstream();
+        ModelStats stats = modelStats.computeIfAbsent(new StatsKey(endpoint, model), k -> new ModelStats());
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            stats.record(System.nanoTime() - start, true);
+            return result;
+        } catch (RuntimeException e) {
+            // Cut by the deadline: a latency sample, not an upstream error
+            stats.record(System.nanoTime() - start, GenerationContext.current().isExpired());
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Object> routeConfig = new TreeMap<>();
+        routes.forEach((endpoint, list) -> routeConfig.put(endpoint, list.toString()));
+        result.put("routes", routeConfig);
+        Map<String, Object> decisionCounts = new TreeMap<>();
+        decisions.forEach((key, count) -> decisionCounts.put(key, count.sum()));
+        result.put("decisions", decisionCounts);
+        Map<String, Map<String, Object>> models = new TreeMap<>();
+        modelStats.forEach((key, stats) ->
+                models.computeIfAbsent(key.endpoint(), k -> new TreeMap<>()).put(key.model(), stats.snapshot()));
+        result.put("models", models);
+        return result;
+    }
+
+    private boolean withinSlo(String endpoint, Route route) {
+        ModelStats stats = modelStats.get(new StatsKey(endpoint, route.model()));
+        if (stats == null) return true;
+        return stats.withinSlo(route.sloMillis(), TimeUnit.SECONDS.toNanos(windowSeconds), minSamples, maxErrorRate);
+    }
+
+    private List<Route> parseRoutes(String endpoint) {
+        String property = "gemini.routing." + endpoint + ".models";
+        String config = environment.getProperty(property);
+        List<Route> parsed = config != null ? parseRoutes(property, config) : parseRoutes("gemini.routing.models", defaultRoutes);
+        logger.info("Gemini model routes for {}: {}", endpoint, parsed);
+        return parsed;
+    }
+
+    /**
+     * @throws IllegalStateException if an entry is not {@code model[:maxInputChars[:sloMillis]]}
+     */
+    private List<Route> parseRoutes(String property, String config) {
+        List<Route> parsed = new ArrayList<>();
+        if (StringUtils.hasText(config)) {
+            for (String entry : config.split(",")) {
+                String[] parts = entry.trim().split(":", -1);
+                if (parts.length > 3 || !StringUtils.hasText(parts[0])) {
+                    throw new IllegalStateException("Invalid route '" + entry.trim() + "' in " + property
+                            + ": expected model[:maxInputChars[:sloMillis]]");
+                }
+                try {
+                    int maxChars = parts.length > 1 && StringUtils.hasText(parts[1]) ? Integer.parseInt(parts[1].trim()) : 0;
+                    long slo = parts.length > 2 && StringUtils.hasText(parts[2]) ? Long.parseLong(parts[2].trim()) : Long.MAX_VALUE;
+                    if (maxChars < 0 || slo <= 0) {
+                        throw new IllegalStateException("Invalid route '" + entry.trim() + "' in " + property
+                                + ": maxInputChars must be >= 0 and sloMillis > 0");
+                    }
+                    parsed.add(new Route(parts[0].trim(), maxChars, slo));
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Invalid route '" + entry.trim() + "' in " + property
+                            + ": maxInputChars and sloMillis must be integers", e);
+                }
+            }
+        }
+        if (parsed.isEmpty()) {
+            parsed.add(new Route(defaultModel, 0, Long.MAX_VALUE));
+        }
+        return List.copyOf(parsed);
+    }
+
+    private static final class ModelStats {
+        private final long[] latencies = new long[WINDOW_SAMPLES];
+        private final long[] timestamps = new long[WINDOW_SAMPLES];
+        private final boolean[] failures = new boolean[WINDOW_SAMPLES];
+        private int next;
+        private int size;
+        private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BOUNDS.length + 1];
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private ModelStats() {
+            for (int i = 0; i < histogram.length; i++) histogram[i] = new LongAdder();
+        }
+
+        void record(long elapsedNanos, boolean success) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            calls.increment();
+            if (!success) errors.increment();
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BOUNDS.length && millis > HISTOGRAM_BOUNDS[bucket]) bucket++;
+            histogram[bucket].increment();
+            synchronized (this) {
+                latencies[next] = millis;
+                timestamps[next] = System.nanoTime();
+                failures[next] = !success;
+                next = (next + 1) % WINDOW_SAMPLES;
+                if (size < WINDOW_SAMPLES) size++;
+            }
+        }
+
+        synchronized boolean withinSlo(long sloMillis, long windowNanos, int minSamples, double maxErrorRate) {
+            long now = System.nanoTime();
+            long[] recent = new long[size];
+            int count = 0;
+            int failed = 0;
+            for (int i = 0; i < size; i++) {
+                if (now - timestamps[i] > windowNanos) continue;
+                recent[count++] = latencies[i];
+                if (failures[i]) failed++;
+            }
+            if (count < minSamples) return true;
+            if (failed > maxErrorRate * count) return false;
+            Arrays.sort(recent, 0, count);
+            long p90 = recent[Math.min(count - 1, (int) Math.ceil(count * 0.9) - 1)];
+            return p90 <= sloMillis;
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("calls", calls.sum());
+            result.put("errors", errors.sum());
+            Map<String, Object> buckets = new LinkedHashMap<>();
+            for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+                buckets.put("le_" + HISTOGRAM_BOUNDS[i] + "ms", histogram[i].sum());
+            }
+            buckets.put("gt_" + HISTOGRAM_BOUNDS[HISTOGRAM_BOUNDS.length - 1] + "ms", histogram[HISTOGRAM_BOUNDS.length].sum());
+            result.put("latencyHistogram", buckets);
+            return result;
+        }
+    }
+}
@@ -1,40 +1,61 @@
 package com.example.agenttest.service;
 
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.context.DeadlineAwareRequestFactory;
+import com.example.agenttest.context.GenerationContext;
 import com.example.agenttest.exception.GeminiApiException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class GeminiService {
 
     private static final Logger logger = LoggerFactory.getLogger(GeminiService.class);
     private static final String GEMINI_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s";
+    private static final String GEMINI_STREAM_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/%s:streamGenerateContent?alt=sse&key=%s";
 
     @Value("${gemini.api.key}")
     private String apiKey;
 
-    @Value("${gemini.api.model-name}")
-    private String modelName; // e.g., "gemini-2.0-flash"
-
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate = new RestTemplate(new DeadlineAwareRequestFactory());
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DiagramDataParser diagramDataParser;
+    private final GeminiCallExecutor callExecutor;
+    private final DeadlineService deadlineService;
+
+    @Autowired
+    public GeminiService(DiagramDataParser diagramDataParser, GeminiCallExecutor callExecutor,
+                         DeadlineService deadlineService) {
+        this.diagramDataParser = diagramDataParser;
+        this.callExecutor = callExecutor;
+        this.deadlineService = deadlineService;
+    }
 
     public String generateCahierDeCharge(String requirements) {
         try {
             final String prompt = buildPrompt(requirements);
-            final String responseText = callGeminiApi(prompt);
+            final String responseText = callGeminiApi("diagram", prompt);
 
             // Return the raw response text - let the parser handle the specific format
             return responseText;
@@ -44,7 +65,57 @@ public class GeminiService {
         }
     }
 
-    private String callGeminiApi(String prompt) {
+    /**
+     * Asks Gemini for the class model (classes and relationships) described by the given text, as JSON.
+     *
+     * @param requirements requirements text, or one chunk of a larger document
+     * @return the parsed class model
+     */
+    public GeminiResponse extractClassModel(String requirements) {
+        try {
+            final String responseText = callGeminiApi("class-model", buildClassModelPrompt(requirements));
+            return diagramDataParser.parseGeminiResponse(stripJsonFences(responseText));
+        } catch (Exception e) {
+            logger.error("Error extracting class model from Gemini", e);
+            throw new GeminiApiException("Failed to extract class model: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Streams Gemini's answer to the prompt, handing each text fragment to {@code onText} as soon as it arrives.
+     *
+     * @param endpoint logical caller, used for model routing
+     * @param prompt   full prompt
+     * @param onText   receives the text fragments in order, on the calling thread
+     */
+    public void streamGeminiApi(String endpoint, String prompt, Consumer<String> onText) {
+        HttpEntity<Map<String, Object>> request = buildRequest(prompt);
+
+        RequestCallback requestCallback = restTemplate.httpEntityCallback(request);
+        GenerationContext context = GenerationContext.current();
+        // Server-sent events: one "data: {...}" line per partial GenerateContentResponse
+        ResponseExtractor<Void> responseExtractor = response -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // The read timeout restarts with every chunk, so a slow stream can outlive the deadline
+                if (context.isExpired()) {
+                    reader.close(); // Otherwise closing the response drains the rest of the stream
+                    throw deadlineService.expired("gemini-call");
+                }
+                if (!line.startsWith("data:")) continue;
+                JsonNode text = objectMapper.readTree(line.substring(5)).path("candidates").path(0)
+                        .path("content").path("parts").path(0).path("text");
+                if (text.isTextual()) onText.accept(text.asText());
+            }
+            return null;
+        };
+
+        callExecutor.execute(endpoint, prompt.length(), model -> restTemplate.execute(
+                String.format(GEMINI_STREAM_API_URL, model, apiKey), HttpMethod.POST, requestCallback, responseExtractor));
+    }
+
+    private HttpEntity<Map<String, Object>> buildRequest(String prompt) {
         // Prepare headers
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -59,11 +130,15 @@ public class GeminiService {
         requestBody.put("contents", List.of(content));
 
         // Create request entity
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
+        return new HttpEntity<>(requestBody, headers);
+    }
+
+    private String callGeminiApi(String endpoint, String prompt) {
+        HttpEntity<Map<String, Object>> request = buildRequest(prompt);
 
         // Make API call
-        String url = String.format(GEMINI_API_URL, modelName, apiKey);
-        ResponseEntity<String> responseEntity = restTemplate.postForEntity(url, request, String.class);
+        ResponseEntity<String> responseEntity = callExecutor.execute(endpoint, prompt.length(),
+                model -> restTemplate.postForEntity(String.format(GEMINI_API_URL, model, apiKey), request, String.class));
 
         if (!responseEntity.getStatusCode().is2xxSuccessful()) {
             throw new GeminiApiException("Gemini API returned non-success status: " + responseEntity.getStatusCode());
@@ -100,6 +175,37 @@ public class GeminiService {
         }
     }
 
+    private String stripJsonFences(String text) {
+        String trimmed = text.trim();
+        int start = trimmed.indexOf('{');
+        int end = trimmed.lastIndexOf('}');
+        return start != -1 && end > start ? trimmed.substring(start, end + 1) : trimmed;
+    }
+
+    private String buildClassModelPrompt(String requirements) {
+        return """
+    Analyze the following text and identify the classes (entities, objects, roles) and the relationships between them.
+    Return ONLY a JSON object, without markdown fences or commentary, with this exact structure:
+    {
+      "classes": [
+        {
+          "name": "ClassName",
+          "stereotype": "interface | abstract | null",
+          "attributes": [ { "visibility": "private", "name": "attr", "type": "String" } ],
+          "methods": [ { "visibility": "public", "name": "op", "parameters": [ { "name": "p", "type": "int" } ], "returnType": "void" } ]
+        }
+      ],
+      "relationships": [
+        { "type": "Association | Inheritance | Realization | Aggregation | Composition",
+          "source": "ClassA", "target": "ClassB", "label": "", "multiplicitySource": "1", "multiplicityTarget": "0..*" }
+      ]
+    }
+    Only include classes and relationships supported by the text.
+
+    Text to analyze:
+    """ + requirements;
+    }
+
     private String buildPrompt(String requirements) {
         // Modify the prompt to specifically request diagram data in JSON format
 
@@ -0,0 +1,153 @@
+package com.example.agenttest.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Finds previously generated results for near-identical inputs, so submissions that only differ in
+ * whitespace, casing, punctuation or a few words reuse the earlier generation.
+ * <p>
+ * Inputs are normalised (accents, casing and punctuation removed), turned into word unigram and bigram
+ * features, and hashed into a 64-bit SimHash. Similarity is {@code 1 - hammingDistance / 64}.
+ * One {@link SimHashIndex} is kept per kind of result. Inputs with no letters or digits left after
+ * normalisation (e.g. "???") have no features to compare and are neither looked up nor remembered.
+ */
+@Service
+public class NearDuplicateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateService.class);
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    public record SimilarResult(String value, double similarity) { }
+
+    @Value("${similarity.enabled:true}")
+    private boolean enabled;
+
+    @Value("${similarity.threshold:0.90}")
+    private double threshold;
+
+    @Value("${similarity.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${similarity.max-megabytes-per-kind:32}")
+    private long maxMegabytesPerKind;
+
+    private final Map<String, SimHashIndex> indexes = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    public Optional<SimilarResult> findSimilar(String kind, String input) {
+        if (!enabled || input == null) return Optional.empty();
+        String normalized = normalize(input);
+        if (normalized.isEmpty()) return Optional.empty();
+        lookups.increment();
+        SimHashIndex index = indexes.get(kind);
+        if (index == null) return Optional.empty();
+
+        SimHashIndex.Match match = index.findNearest(signature(normalized));
+        if (match == null) return Optional.empty();
+        hits.increment();
+        double similarity = 1.0 - match.distance() / 64.0;
+        logger.info("Near-duplicate {} input found (similarity {})", kind, similarity);
+        return Optional.of(new SimilarResult(match.value(), similarity));
+    }
+
+    public void remember(String kind, String input, String value) {
+        if (!enabled || input == null || value == null) return;
+        String normalized = normalize(input);
+        if (normalized.isEmpty()) return;
+        SimHashIndex index = indexes.computeIfAbsent(kind,
+                k -> new SimHashIndex(maxEntries, maxDistance(), maxMegabytesPerKind * 1024 * 1024));
+        if (!index.add(signature(normalized), value)) {
+            logger.debug("Not remembering {} result of {} chars: larger than the index budget", kind, value.length());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("threshold", threshold);
+        result.put("maxHammingDistance", maxDistance());
+        result.put("lookups", lookups.sum());
+        result.put("hits", hits.sum());
+        Map<String, Object> sizes = new LinkedHashMap<>();
+        Map<String, Object> bytes = new LinkedHashMap<>();
+        indexes.forEach((kind, index) -> {
+            sizes.put(kind, index.size());
+            bytes.put(kind, index.bytes());
+        });
+        result.put("entries", sizes);
+        result.put("bytes", bytes);
+        result.put("maxBytesPerKind", maxMegabytesPerKind * 1024 * 1024);
+        return result;
+    }
+
+    /**
+     * Largest Hamming distance accepted by the threshold, capped at {@link SimHashIndex#MAX_DISTANCE}.
+     */
+    int maxDistance() {
+        int distance = (int) Math.floor((1.0 - threshold) * 64 + 1e-9);
+        return Math.max(0, Math.min(SimHashIndex.MAX_DISTANCE, distance));
+    }
+
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String withoutAccents = DIACRITICS.matcher(decomposed).replaceAll("");
+        return NON_WORD.matcher(withoutAccents.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    static long simHash(String text) {
+        return signature(normalize(text));
+    }
+
+    // SimHash of already normalised text; 0 for empty text, which callers must not index
+    private static long signature(String normalized) {
+        if (normalized.isEmpty()) return 0L;
+        String[] words = normalized.split(" ");
+        int[] weights = new int[64];
+        for (int i = 0; i < words.length; i++) {
+            addFeature(weights, hash(words[i]));
+            if (i + 1 < words.length) {
+                addFeature(weights, hash(words[i] + ' ' + words[i + 1]));
+            }
+        }
+        long signature = 0L;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) signature |= 1L << bit;
+        }
+        return signature;
+    }
+
+    private static void addFeature(int[] weights, long featureHash) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((featureHash >>> bit) & 1L) != 0 ? 1 : -1;
+        }
+    }
+
+    // FNV-1a followed by a SplitMix64 finaliser, so every output bit depends on the whole feature
+    private static long hash(String feature) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < feature.length(); i++) {
+            h ^= feature.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return h;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.agenttest.service;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of 64-bit SimHash signatures with their stored results, bounded both in entries and in bytes.
+ * <p>
+ * Signatures live in a ring buffer of primitive arrays. The oldest entries are evicted when the ring is
+ * full or when the estimated size of the stored results would exceed {@code maxBytes}. The signature is
+ * cut into {@code maxDistance + 1} bands (at least four) and every band keeps a bucket per band value as a
+ * doubly-linked list over slot numbers. Two signatures within Hamming distance {@code maxDistance} agree
+ * exactly on at least one band, so a lookup only visits one bucket per band and verifies the full distance
+ * of each candidate. Fewer bands mean wider bands, smaller buckets and faster lookups.
+ */
+public class SimHashIndex {
+
+    public static final int MAX_DISTANCE = 15; // keeps every band at least 4 bits wide
+    private static final int MIN_BANDS = 4; // keeps every band at most 16 bits wide
+    private static final int NONE = -1;
+    private static final int ENTRY_OVERHEAD_BYTES = 56; // String header and array header, per stored result
+
+    public record Match(String value, int distance) { }
+
+    private final int capacity;
+    private final long maxBytes;
+    private final int maxDistance;
+    private final int bands;
+    private final int[] bandShift;
+    private final long[] bandMask;
+    private final long[] signatures;
+    private final String[] values;
+    private final int[][] heads;
+    private final int[][] next;
+    private final int[][] prev;
+    private int size;
+    private int oldest; // live entries occupy the ring from oldest, size slots long
+    private long bytes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SimHashIndex(int capacity, int maxDistance, long maxBytes) {
+        this.capacity = Math.max(1, capacity);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxDistance = Math.max(0, Math.min(MAX_DISTANCE, maxDistance));
+        this.bands = Math.max(MIN_BANDS, this.maxDistance + 1);
+        this.signatures = new long[this.capacity];
+        this.values = new String[this.capacity];
+        this.next = new int[bands][this.capacity];
+        this.prev = new int[bands][this.capacity];
+        this.heads = new int[bands][];
+        this.bandShift = new int[bands];
+        this.bandMask = new long[bands];
+        int shift = 0;
+        for (int band = 0; band < bands; band++) {
+            // The first (64 % bands) bands take one extra bit so that all 64 bits are covered
+            int bits = 64 / bands + (band < 64 % bands ? 1 : 0);
+            bandShift[band] = shift;
+            bandMask[band] = (1L << bits) - 1;
+            heads[band] = new int[1 << bits];
+            Arrays.fill(heads[band], NONE);
+            shift += bits;
+        }
+    }
+
+    /**
+     * Adds an entry, evicting the oldest ones as needed.
+     *
+     * @return false if the value alone is larger than the byte budget and was not stored
+     */
+    public boolean add(long signature, String value) {
+        long cost = cost(value);
+        if (cost > maxBytes) return false;
+        lock.writeLock().lock();
+        try {
+            while (size == capacity || bytes + cost > maxBytes) {
+                evictOldest();
+            }
+            int slot = (oldest + size) % capacity;
+            size++;
+            bytes += cost;
+            signatures[slot] = signature;
+            values[slot] = value;
+            for (int band = 0; band < bands; band++) {
+                int bucket = band(signature, band);
+                int head = heads[band][bucket];
+                next[band][slot] = head;
+                prev[band][slot] = NONE;
+                if (head != NONE) prev[band][head] = slot;
+                heads[band][bucket] = slot;
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the closest stored entry within {@code maxDistance} differing bits, or null.
+     */
+    public Match findNearest(long signature) {
+        lock.readLock().lock();
+        try {
+            int bestSlot = NONE;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int band = 0; band < bands; band++) {
+                for (int slot = heads[band][band(signature, band)]; slot != NONE; slot = next[band][slot]) {
+                    int distance = Long.bitCount(signatures[slot] ^ signature);
+                    if (distance <= maxDistance && distance < bestDistance) {
+                        bestDistance = distance;
+                        bestSlot = slot;
+                        if (distance == 0) return new Match(values[slot], 0);
+                    }
+                }
+            }
+            return bestSlot == NONE ? null : new Match(values[bestSlot], bestDistance);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated heap size of the stored results, in bytes.
+     */
+    public long bytes() {
+        lock.readLock().lock();
+        try {
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void evictOldest() {
+        bytes -= cost(values[oldest]);
+        unlink(oldest);
+        oldest = (oldest + 1) % capacity;
+        size--;
+    }
+
+    private static long cost(String value) {
+        // Upper bound: UTF-16 storage; Latin-1 strings take half of this
+        return ENTRY_OVERHEAD_BYTES + 2L * value.length();
+    }
+
+    private void unlink(int slot) {
+        long signature = signatures[slot];
+        for (int band = 0; band < bands; band++) {
+            int before = prev[band][slot];
+            int after = next[band][slot];
+            if (before != NONE) {
+                next[band][before] = after;
+            } else {
+                heads[band][band(signature, band)] = after;
+            }
+            if (after != NONE) prev[band][after] = before;
+        }
+        values[slot] = null;
+    }
+
+    private int band(long signature, int band) {
+        return (int) ((signature >>> bandShift[band]) & bandMask[band]);
+    }
+}
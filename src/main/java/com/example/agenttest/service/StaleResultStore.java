@@ -0,0 +1,62 @@
+package com.example.agenttest.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded LRU store of the last good result per input, served while the Gemini circuit is open.
+ * Inputs are keyed by their SHA-256 so the store does not keep the requirement texts themselves.
+ */
+@Service
+public class StaleResultStore {
+
+    public record StoredResult(String value, Instant storedAt) { }
+
+    @Value("${gemini.circuit-breaker.stale-fallback.enabled:true}")
+    private boolean enabled;
+
+    private final Map<String, StoredResult> results;
+
+    public StaleResultStore(@Value("${gemini.circuit-breaker.stale-fallback.max-entries:500}") int maxEntries) {
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public void put(String kind, String input, String value) {
+        if (!enabled || input == null || value == null) return;
+        String key = key(kind, input);
+        synchronized (results) {
+            results.put(key, new StoredResult(value, Instant.now()));
+        }
+    }
+
+    public Optional<StoredResult> get(String kind, String input) {
+        if (!enabled || input == null) return Optional.empty();
+        String key = key(kind, input);
+        synchronized (results) {
+            return Optional.ofNullable(results.get(key));
+        }
+    }
+
+    private static String key(String kind, String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return kind + ":" + HexFormat.of().formatHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.agenttest.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private AdmissionLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new AdmissionLimiter();
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "initialLimit", 4);
+        ReflectionTestUtils.setField(limiter, "minLimit", 1);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 64);
+        ReflectionTestUtils.setField(limiter, "maxQueue", 1);
+        ReflectionTestUtils.setField(limiter, "maxWaitMillis", 2_000L);
+        ReflectionTestUtils.setField(limiter, "rttTolerance", 1.5);
+        ReflectionTestUtils.setField(limiter, "smoothing", 0.2);
+        ReflectionTestUtils.setField(limiter, "timeoutBackoff", 0.5);
+        limiter.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void shedsOnceTheLimitAndTheQueueAreFull() {
+        for (int i = 1; i <= 4; i++) {
+            assertThat(limiter.tryAcquire(SECOND)).isEqualTo(i);
+        }
+        // No time left to wait: shed at once
+        assertThat(limiter.tryAcquire(0)).isEqualTo(-1);
+
+        callers.submit(() -> limiter.tryAcquire(SECOND));
+        await(() -> stat("waiting").equals(1));
+        assertThat(limiter.tryAcquire(SECOND)).isEqualTo(-1);
+        assertThat(stat("shed")).isEqualTo(2L);
+    }
+
+    @Test
+    void queuedRequestTakesTheNextFreedSlot() throws Exception {
+        for (int i = 0; i < 4; i++) limiter.tryAcquire(SECOND);
+        Future<Integer> waiter = callers.submit(() -> limiter.tryAcquire(SECOND));
+        await(() -> stat("waiting").equals(1));
+
+        limiter.release(SECOND, 4, false, true);
+        assertThat(waiter.get(1, TimeUnit.SECONDS)).isEqualTo(4);
+        assertThat(stat("queued")).isEqualTo(1L);
+    }
+
+    @Test
+    void queuedRequestIsShedWhenItsWaitRunsOut() {
+        for (int i = 0; i < 4; i++) limiter.tryAcquire(SECOND);
+        assertThat(limiter.tryAcquire(TimeUnit.MILLISECONDS.toNanos(20))).isEqualTo(-1);
+        assertThat(stat("waiting")).isEqualTo(0);
+    }
+
+    @Test
+    void limitGrowsWhileLatencyIsStable() {
+        for (int i = 0; i < 20; i++) cycle(100, true);
+        assertThat(limit()).isGreaterThan(4);
+    }
+
+    @Test
+    void limitShrinksWhenLatencyRises() {
+        for (int i = 0; i < 20; i++) cycle(100, true);
+        int stable = limit();
+        for (int i = 0; i < 10; i++) cycle(1_000, true);
+        assertThat(limit()).isLessThan(stable);
+    }
+
+    @Test
+    void gatewayTimeoutsCutTheLimit() {
+        limiter.tryAcquire(SECOND);
+        limiter.release(SECOND, 1, true, true);
+        assertThat(limit()).isEqualTo(2);
+    }
+
+    @Test
+    void requestsThatDidNotCallUpstreamAreNotSampled() {
+        for (int i = 0; i < 20; i++) cycle(100, true);
+        int stable = limit();
+        Object longRtt = stat("longRttMillis");
+
+        // Fast answers from caches, validation errors or an open circuit
+        for (int i = 0; i < 50; i++) cycle(1, false);
+        assertThat(limit()).isEqualTo(stable);
+        assertThat(stat("longRttMillis")).isEqualTo(longRtt);
+        assertThat(stat("unsampled")).isEqualTo(50L);
+    }
+
+    // One request admitted and completed with the given response time, with the cap fully used
+    private void cycle(long rttMillis, boolean calledUpstream) {
+        assertThat(limiter.tryAcquire(SECOND)).isPositive();
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(rttMillis), limit(), false, calledUpstream);
+    }
+
+    private int limit() {
+        return (Integer) stat("limit");
+    }
+
+    private Object stat(String name) {
+        return limiter.getStats().get(name);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Condition not met within 5 s");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.exception.DeadlineExceededException;
+import com.example.agenttest.exception.GeminiApiException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChunkedExtractionServiceTest {
+
+    private final GeminiService geminiService = mock(GeminiService.class);
+    private ExecutorService executor;
+    private ChunkedExtractionService service;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        service = new ChunkedExtractionService(geminiService, executor);
+        ReflectionTestUtils.setField(service, "maxChunkChars", 40);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void splitKeepsParagraphsTogetherUpToTheLimit() {
+        List<String> chunks = service.split("First paragraph.\n\nSecond one.\n\n# Heading\nThird paragraph here.");
+        assertThat(chunks).containsExactly("First paragraph.\n\nSecond one.", "# Heading\nThird paragraph here.");
+        assertThat(chunks).allSatisfy(chunk -> assertThat(chunk.length()).isLessThanOrEqualTo(40));
+    }
+
+    @Test
+    void splitCutsLongParagraphsAtSentenceEnds() {
+        List<String> chunks = service.split("One sentence that is long. Another sentence that is long too.");
+        assertThat(chunks).containsExactly("One sentence that is long.", "Another sentence that is long too.");
+    }
+
+    @Test
+    void mergeDeduplicatesClassesMembersAndRelationships() {
+        GeminiResponse first = response(classDetail("Order", "id"), relationship("Order", "Customer"));
+        GeminiResponse second = response(classDetail("order", "id", "total"), relationship("ORDER", "customer"));
+        second.getClasses().add(classDetail("Customer", "name"));
+
+        GeminiResponse merged = service.merge(List.of(first, second));
+
+        assertThat(merged.getClasses()).extracting(ClassDetail::getName).containsExactly("Order", "Customer");
+        assertThat(merged.getClasses().get(0).getAttributes()).extracting(AttributeDetail::getName).containsExactly("id", "total");
+        assertThat(merged.getRelationships()).singleElement()
+                .satisfies(rel -> assertThat(rel.getSource()).isEqualTo("Order"));
+    }
+
+    @Test
+    void firstFailureSkipsQueuedChunks() {
+        when(geminiService.extractClassModel("chunk-1")).thenThrow(new GeminiApiException("boom"));
+        when(geminiService.extractClassModel("chunk-2")).thenReturn(response(classDetail("A")));
+        when(geminiService.extractClassModel("chunk-3")).thenReturn(response(classDetail("B")));
+
+        assertThatThrownBy(() -> service.extractAndMerge(List.of("chunk-1", "chunk-2", "chunk-3")))
+                .isInstanceOf(GeminiApiException.class).hasMessage("boom");
+        verify(geminiService, times(1)).extractClassModel(anyString());
+    }
+
+    @Test
+    void firstFailureIsReportedRatherThanSkippedChunks() {
+        ExecutorService parallel = Executors.newFixedThreadPool(4);
+        try {
+            ChunkedExtractionService parallelService = new ChunkedExtractionService(geminiService, parallel);
+            when(geminiService.extractClassModel(anyString())).thenReturn(response(classDetail("A")));
+            when(geminiService.extractClassModel("chunk-0")).thenThrow(new DeadlineExceededException("gemini-call"));
+            List<String> chunks = IntStream.range(0, 32).mapToObj(i -> "chunk-" + i).toList();
+
+            // Skipped chunks race with the failure for the completion queue: repeat to cover the interleavings
+            for (int run = 0; run < 50; run++) {
+                assertThatThrownBy(() -> parallelService.extractAndMerge(chunks))
+                        .isInstanceOf(DeadlineExceededException.class);
+            }
+        } finally {
+            parallel.shutdownNow();
+        }
+    }
+
+    @Test
+    void extractAndMergeKeepsChunkOrder() {
+        when(geminiService.extractClassModel("chunk-1")).thenReturn(response(classDetail("A")));
+        when(geminiService.extractClassModel("chunk-2")).thenReturn(response(classDetail("B")));
+
+        GeminiResponse merged = service.extractAndMerge(List.of("chunk-1", "chunk-2"));
+        assertThat(merged.getClasses()).extracting(ClassDetail::getName).containsExactly("A", "B");
+    }
+
+    private static GeminiResponse response(ClassDetail classDetail, RelationshipDetail... relationships) {
+        GeminiResponse response = new GeminiResponse();
+        response.setClasses(new ArrayList<>(List.of(classDetail)));
+        response.setRelationships(new ArrayList<>(List.of(relationships)));
+        return response;
+    }
+
+    private static ClassDetail classDetail(String name, String... attributes) {
+        ClassDetail classDetail = new ClassDetail();
+        classDetail.setName(name);
+        classDetail.setAttributes(Arrays.stream(attributes).map(a -> {
+            AttributeDetail attr = new AttributeDetail();
+            attr.setName(a);
+            return attr;
+        }).toList());
+        return classDetail;
+    }
+
+    private static RelationshipDetail relationship(String source, String target) {
+        RelationshipDetail rel = new RelationshipDetail();
+        rel.setType("Association");
+        rel.setSource(source);
+        rel.setTarget(target);
+        return rel;
+    }
+}
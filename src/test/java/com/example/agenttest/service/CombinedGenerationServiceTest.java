@@ -0,0 +1,127 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.exception.GeminiApiException;
+import com.example.agenttest.exception.GenerationException;
+import com.example.agenttest.service.CombinedGenerationService.CombinedResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CombinedGenerationServiceTest {
+
+    private static final String DIAGRAM = "@startuml\nclass Livre\n@enduml";
+
+    private final GeminiService geminiService = mock(GeminiService.class);
+    private final DiagramRenderService renderService = mock(DiagramRenderService.class);
+    private ExecutorService renderExecutor;
+    private CombinedGenerationService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        renderExecutor = Executors.newSingleThreadExecutor();
+        service = new CombinedGenerationService(geminiService, renderService, renderExecutor);
+        when(renderService.renderSvg(DIAGRAM)).thenReturn("<svg/>");
+    }
+
+    @AfterEach
+    void tearDown() {
+        renderExecutor.shutdownNow();
+    }
+
+    @Test
+    void splitsTheStreamAtTheMarkersAndRendersBeforeTheCdcEnds() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(2);
+            for (String fragment : List.of("===DIAGRAM===\n@start", "uml\nclass Livre\n@end", "uml\n\n===CDC=")) {
+                onText.accept(fragment);
+            }
+            // The diagram block is complete: its render starts while the CDC is still streaming
+            verify(renderService, timeout(5_000)).renderSvg(DIAGRAM);
+            onText.accept("==\n```markdown\n# Bibliothèque\n- Prêt de livres\n```");
+            return null;
+        }).when(geminiService).streamGeminiApi(eq("combined"), anyString(), any());
+
+        CombinedResult result = service.generate("Une bibliothèque");
+
+        assertThat(result.plantUmlSource()).isEqualTo(DIAGRAM);
+        assertThat(result.diagramSvg()).isEqualTo("<svg/>");
+        assertThat(result.diagramError()).isNull();
+        assertThat(result.document()).isEqualTo("# Bibliothèque\n- Prêt de livres");
+    }
+
+    @Test
+    void keepsWhatFollowsTheDiagramWhenMarkersAreDropped() throws Exception {
+        stream(DIAGRAM + "\n# Bibliothèque\n- Prêt de livres");
+
+        CombinedResult result = service.generate("Une bibliothèque");
+
+        assertThat(result.diagramSvg()).isEqualTo("<svg/>");
+        assertThat(result.document()).isEqualTo("# Bibliothèque\n- Prêt de livres");
+    }
+
+    @Test
+    void missingEndumlLeavesTheDiagramOut() throws Exception {
+        stream("===DIAGRAM===\n@startuml\nclass Livre\n===CDC===\n# Bibliothèque");
+
+        CombinedResult result = service.generate("Une bibliothèque");
+
+        assertThat(result.document()).isEqualTo("# Bibliothèque");
+        assertThat(result.plantUmlSource()).isNull();
+        assertThat(result.diagramSvg()).isNull();
+        assertThat(result.diagramError()).isNotBlank();
+        verify(renderService, never()).renderSvg(anyString());
+    }
+
+    @Test
+    void streamFailureCancelsTheRunningRender() throws Exception {
+        CountDownLatch renderStarted = new CountDownLatch(1);
+        CountDownLatch renderInterrupted = new CountDownLatch(1);
+        when(renderService.renderSvg(DIAGRAM)).thenAnswer(invocation -> {
+            renderStarted.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                renderInterrupted.countDown();
+            }
+            return "<svg/>";
+        });
+        doAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(2);
+            onText.accept("===DIAGRAM===\n" + DIAGRAM + "\n===CDC===\n# Biblio");
+            assertThat(renderStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            throw new GeminiApiException("stream reset");
+        }).when(geminiService).streamGeminiApi(eq("combined"), anyString(), any());
+
+        assertThatThrownBy(() -> service.generate("Une bibliothèque"))
+                .isInstanceOf(GenerationException.class)
+                .hasMessageContaining("stream reset");
+        assertThat(renderInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void stream(String... fragments) {
+        doAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(2);
+            for (String fragment : fragments) onText.accept(fragment);
+            return null;
+        }).when(geminiService).streamGeminiApi(eq("combined"), anyString(), any());
+    }
+}
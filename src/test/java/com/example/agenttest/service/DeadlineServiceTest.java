@@ -0,0 +1,53 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DeadlineServiceTest {
+
+    private DeadlineService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DeadlineService();
+        ReflectionTestUtils.setField(service, "defaultTimeoutMillis", 120_000L);
+        ReflectionTestUtils.setField(service, "maxTimeoutMillis", 300_000L);
+    }
+
+    @Test
+    void usesTheClientTimeoutHeader() {
+        assertThat(remainingMillis(service.deadlineFor("5000"))).isCloseTo(5_000L, within(1_000L));
+        assertThat(remainingMillis(service.deadlineFor(" 5000 "))).isCloseTo(5_000L, within(1_000L));
+    }
+
+    @Test
+    void fallsBackToTheDefaultForMissingOrInvalidHeaders() {
+        for (String header : new String[] {null, "", "  ", "abc", "0", "-10", "1.5"}) {
+            assertThat(remainingMillis(service.deadlineFor(header))).as(String.valueOf(header))
+                    .isCloseTo(120_000L, within(1_000L));
+        }
+    }
+
+    @Test
+    void capsClientTimeoutsAtMaxMs() {
+        assertThat(remainingMillis(service.deadlineFor("3600000"))).isCloseTo(300_000L, within(1_000L));
+    }
+
+    @Test
+    void zeroDefaultMeansNoDeadline() {
+        ReflectionTestUtils.setField(service, "defaultTimeoutMillis", 0L);
+        assertThat(service.deadlineFor(null)).isEqualTo(GenerationContext.NO_DEADLINE);
+        assertThat(remainingMillis(service.deadlineFor("5000"))).isCloseTo(5_000L, within(1_000L));
+    }
+
+    private static long remainingMillis(long deadlineNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.dto.session.DiagramPatchOperation;
+import com.example.agenttest.dto.session.DiagramPatchOperation.Op;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DiagramModelTest {
+
+    @Test
+    void addAndRemoveMembers() {
+        DiagramModel model = DiagramModel.from(model("Order", "Customer"));
+        AttributeDetail total = attribute("total");
+        model.apply(op(Op.ADD_ATTRIBUTE, "Order", o -> o.setAttribute(total)));
+        model.apply(op(Op.SET_STEREOTYPE, "Customer", o -> o.setStereotype("abstract")));
+
+        ClassDetail order = find(model.toGeminiResponse(), "Order");
+        assertThat(order.getAttributes()).extracting(AttributeDetail::getName).containsExactly("total");
+        assertThat(find(model.toGeminiResponse(), "Customer").getStereotype()).isEqualTo("abstract");
+
+        model.apply(op(Op.REMOVE_ATTRIBUTE, "Order", o -> o.setMemberName("total")));
+        assertThat(find(model.toGeminiResponse(), "Order").getAttributes()).isEmpty();
+        assertThatThrownBy(() -> model.apply(op(Op.REMOVE_ATTRIBUTE, "Order", o -> o.setMemberName("total"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void renameClassRewritesRelationshipEnds() {
+        DiagramModel model = DiagramModel.from(model("Order", "Customer"));
+        model.apply(op(Op.ADD_RELATIONSHIP, null, o -> o.setRelationship(relationship("Order", "Customer"))));
+        model.apply(op(Op.RENAME_CLASS, "Customer", o -> o.setNewName("Client")));
+
+        GeminiResponse response = model.toGeminiResponse();
+        assertThat(response.getClasses()).extracting(ClassDetail::getName).containsExactly("Order", "Client");
+        assertThat(response.getRelationships()).singleElement()
+                .satisfies(rel -> assertThat(rel.getTarget()).isEqualTo("Client"));
+
+        // The relationship index follows the rename
+        RelationshipDetail selector = relationship("Order", "Client");
+        selector.setMultiplicityTarget("1..*");
+        model.apply(op(Op.SET_MULTIPLICITY, null, o -> o.setRelationship(selector)));
+        assertThat(model.toGeminiResponse().getRelationships().get(0).getMultiplicityTarget()).isEqualTo("1..*");
+    }
+
+    @Test
+    void removeClassRemovesItsRelationships() {
+        DiagramModel model = DiagramModel.from(model("A", "B", "C"));
+        model.apply(op(Op.ADD_RELATIONSHIP, null, o -> o.setRelationship(relationship("A", "B"))));
+        model.apply(op(Op.ADD_RELATIONSHIP, null, o -> o.setRelationship(relationship("B", "C"))));
+        model.apply(op(Op.REMOVE_CLASS, "B", o -> { }));
+
+        GeminiResponse response = model.toGeminiResponse();
+        assertThat(response.getClasses()).extracting(ClassDetail::getName).containsExactly("A", "C");
+        assertThat(response.getRelationships()).isEmpty();
+    }
+
+    @Test
+    void rejectsInvalidOperations() {
+        DiagramModel model = DiagramModel.from(model("A"));
+        ClassDetail duplicate = new ClassDetail();
+        duplicate.setName("A");
+        assertThatThrownBy(() -> model.apply(op(Op.ADD_CLASS, null, o -> o.setClassDetail(duplicate))))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("already exists");
+        assertThatThrownBy(() -> model.apply(op(Op.RENAME_CLASS, "Missing", o -> o.setNewName("X"))))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Unknown class");
+        assertThatThrownBy(() -> model.apply(op(Op.REMOVE_RELATIONSHIP, null, o -> o.setRelationship(relationship("A", "B")))))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Unknown relationship");
+        assertThatThrownBy(() -> model.apply(new DiagramPatchOperation()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void returnedModelIsDetached() {
+        DiagramModel model = DiagramModel.from(model("A"));
+        find(model.toGeminiResponse(), "A").setName("Changed");
+        assertThat(model.toGeminiResponse().getClasses()).extracting(ClassDetail::getName).containsExactly("A");
+    }
+
+    @Test
+    void failedPatchRollsBackEveryOperation() {
+        GeminiResponse initial = model("A", "B", "C", "D");
+        find(initial, "B").setAttributes(List.of(attribute("x"), attribute("y"), attribute("z")));
+        initial.getRelationships().add(relationship("A", "B"));
+        initial.getRelationships().add(relationship("B", "C"));
+        initial.getRelationships().add(relationship("C", "Later")); // end without a class yet
+        initial.getRelationships().add(relationship("D", "A"));
+        DiagramModel model = DiagramModel.from(initial);
+        GeminiResponse before = model.toGeminiResponse();
+
+        RelationshipDetail multiplicity = relationship("A", "B");
+        multiplicity.setMultiplicityTarget("0..1");
+        assertThatThrownBy(() -> model.applyAll(List.of(
+                op(Op.REMOVE_ATTRIBUTE, "B", o -> o.setMemberName("y")),
+                op(Op.ADD_ATTRIBUTE, "B", o -> o.setAttribute(attribute("x"))),
+                op(Op.SET_STEREOTYPE, "A", o -> o.setStereotype("abstract")),
+                op(Op.SET_MULTIPLICITY, null, o -> o.setRelationship(multiplicity)),
+                op(Op.RENAME_CLASS, "C", o -> o.setNewName("Later")),
+                op(Op.REMOVE_CLASS, "B", o -> { }),
+                op(Op.REMOVE_RELATIONSHIP, null, o -> o.setRelationship(relationship("D", "A"))),
+                op(Op.ADD_CLASS, null, o -> o.setClassDetail(model("E").getClasses().get(0))),
+                op(Op.ADD_RELATIONSHIP, null, o -> o.setRelationship(relationship("E", "A"))),
+                op(Op.REMOVE_CLASS, "Missing", o -> { }))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("operation 10 (REMOVE_CLASS)");
+
+        assertThat(model.toGeminiResponse()).usingRecursiveComparison().isEqualTo(before);
+        // Indexes are restored too: later operations still find the original relationships
+        model.apply(op(Op.REMOVE_RELATIONSHIP, null, o -> o.setRelationship(relationship("C", "Later"))));
+        model.apply(op(Op.RENAME_CLASS, "C", o -> o.setNewName("Renamed")));
+        assertThat(model.toGeminiResponse().getRelationships()).extracting(RelationshipDetail::getSource)
+                .containsExactly("A", "B", "D");
+        assertThat(model.toGeminiResponse().getRelationships().get(1).getTarget()).isEqualTo("Renamed");
+    }
+
+    static GeminiResponse model(String... classNames) {
+        List<ClassDetail> classes = new ArrayList<>();
+        for (String name : classNames) {
+            ClassDetail classDetail = new ClassDetail();
+            classDetail.setName(name);
+            classes.add(classDetail);
+        }
+        GeminiResponse response = new GeminiResponse();
+        response.setClasses(classes);
+        response.setRelationships(new ArrayList<>());
+        return response;
+    }
+
+    static DiagramPatchOperation op(Op type, String className, Consumer<DiagramPatchOperation> setup) {
+        DiagramPatchOperation operation = new DiagramPatchOperation();
+        operation.setOp(type);
+        operation.setClassName(className);
+        setup.accept(operation);
+        return operation;
+    }
+
+    static RelationshipDetail relationship(String source, String target) {
+        RelationshipDetail rel = new RelationshipDetail();
+        rel.setType("Association");
+        rel.setSource(source);
+        rel.setTarget(target);
+        return rel;
+    }
+
+    private static AttributeDetail attribute(String name) {
+        AttributeDetail attr = new AttributeDetail();
+        attr.setName(name);
+        attr.setType("double");
+        return attr;
+    }
+
+    private static ClassDetail find(GeminiResponse response, String name) {
+        return response.getClasses().stream().filter(c -> name.equals(c.getName())).findFirst().orElseThrow();
+    }
+}
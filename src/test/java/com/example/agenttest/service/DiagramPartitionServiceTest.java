@@ -0,0 +1,96 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.service.DiagramPartitionService.Partition;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.example.agenttest.service.DiagramModelTest.model;
+import static com.example.agenttest.service.DiagramModelTest.relationship;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiagramPartitionServiceTest {
+
+    @Test
+    void smallComponentsArePackedFirstFitDecreasing() {
+        GeminiResponse model = model("A", "B", "C", "D", "E", "F", "G", "H");
+        link(model, "A", "B", "B", "C", "D", "E", "G", "H");
+
+        // Components of 3, 2, 2 and 1 classes, at most 4 per cluster
+        Partition partition = service(4).partition(model);
+
+        assertThat(names(partition)).containsExactly(List.of("A", "B", "C", "F"), List.of("D", "E", "G", "H"));
+        assertThat(partition.clusters()).extracting(c -> c.getRelationships().size()).containsExactly(2, 2);
+        assertThat(partition.crossEdges()).isEmpty();
+    }
+
+    @Test
+    void oversizedComponentsAreSplitAndCrossEdgesCounted() {
+        GeminiResponse model = model("A", "B", "C", "D", "E", "F");
+        link(model, "A", "B", "B", "C", "C", "D", "D", "E", "E", "F");
+
+        Partition partition = service(3).partition(model);
+
+        // The chain is cut once, between C and D
+        assertThat(names(partition)).containsExactly(List.of("A", "B", "C"), List.of("D", "E", "F"));
+        assertThat(partition.crossEdges()).isEqualTo(Map.of("0-1", 1));
+        assertThat(partition.clusters()).extracting(c -> c.getRelationships().size()).containsExactly(2, 2);
+    }
+
+    @Test
+    void everyClassLandsInExactlyOneClusterWithinTheCap() {
+        GeminiResponse model = model("Hub", "A", "B", "C", "D", "E", "F", "G", "X", "Y");
+        link(model, "Hub", "A", "Hub", "B", "Hub", "C", "Hub", "D", "Hub", "E", "Hub", "F", "Hub", "G", "X", "Y");
+
+        Partition partition = service(3).partition(model);
+
+        List<String> all = names(partition).stream().flatMap(List::stream).toList();
+        assertThat(all).containsExactlyInAnyOrder("Hub", "A", "B", "C", "D", "E", "F", "G", "X", "Y");
+        assertThat(names(partition)).allSatisfy(cluster -> assertThat(cluster).hasSizeLessThanOrEqualTo(3));
+        int internal = partition.clusters().stream().mapToInt(c -> c.getRelationships().size()).sum();
+        int crossing = partition.crossEdges().values().stream().mapToInt(Integer::intValue).sum();
+        assertThat(internal + crossing).isEqualTo(8);
+    }
+
+    @Test
+    void relationshipEndsResolveCaseInsensitivelyAndAddImplicitClasses() {
+        GeminiResponse model = model("Order", "", "order ");
+        model.getRelationships().add(relationship("ORDER", "Payment"));
+        RelationshipDetail composition = relationship("ignored", "ignored");
+        composition.setType("Composition");
+        composition.setContainer("Order");
+        composition.setPart("Line");
+        model.getRelationships().add(composition);
+        model.getRelationships().add(relationship("Order", " "));
+
+        Partition partition = service(10).partition(model);
+
+        assertThat(names(partition)).containsExactly(List.of("Order", "Payment", "Line"));
+        assertThat(partition.clusters().get(0).getRelationships()).hasSize(2);
+        assertThat(service(10).partition(null).clusters()).isEmpty();
+    }
+
+    private static DiagramPartitionService service(int maxClusterClasses) {
+        DiagramPartitionService service = new DiagramPartitionService(null, null, null, null);
+        ReflectionTestUtils.setField(service, "maxClusterClasses", maxClusterClasses);
+        return service;
+    }
+
+    // Adds an association for each pair of names
+    private static void link(GeminiResponse model, String... ends) {
+        for (int i = 0; i < ends.length; i += 2) {
+            model.getRelationships().add(relationship(ends[i], ends[i + 1]));
+        }
+    }
+
+    private static List<List<String>> names(Partition partition) {
+        return partition.clusters().stream()
+                .map(c -> c.getClasses().stream().map(ClassDetail::getName).toList())
+                .toList();
+    }
+}
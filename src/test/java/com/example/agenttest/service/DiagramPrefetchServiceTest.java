@@ -0,0 +1,153 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiagramPrefetchServiceTest {
+
+    private static final String TEXT = "Cahier de charge d'une bibliothèque";
+
+    private final GeminiService geminiService = mock(GeminiService.class);
+    private final GeminiCallScheduler callScheduler = mock(GeminiCallScheduler.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicReference<GenerationContext> prefetchContext = new AtomicReference<>();
+    private ExecutorService executor;
+    private DiagramPrefetchService service;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        service = new DiagramPrefetchService(geminiService, callScheduler, executor);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(service, "maxEntries", 10);
+        // Blocks until released, like a Gemini call still in flight
+        when(geminiService.generateCahierDeCharge(TEXT)).thenAnswer(invocation -> {
+            prefetchContext.set(GenerationContext.current());
+            release.await();
+            return "@startuml\n@enduml";
+        });
+        when(callScheduler.promote(any(), any())).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void completedPrefetchIsServedOnce() throws InterruptedException {
+        release.countDown();
+        service.prefetch(TEXT);
+        awaitIdle();
+
+        assertThat(claim(TEXT, 1_000)).contains("@startuml\n@enduml");
+        assertThat(claim(TEXT, 1_000)).isEmpty();
+        assertThat(service.getStats())
+                .containsEntry("hits", 1L)
+                .containsEntry("misses", 1L)
+                .containsEntry("hitRate", 0.5);
+        verify(callScheduler, never()).promote(any(), any());
+    }
+
+    @Test
+    void claimJoinsThePrefetchInFlightAndPromotesIt() throws Exception {
+        service.prefetch(TEXT);
+        awaitStarted();
+
+        Thread releaser = new Thread(() -> {
+            sleep(50);
+            release.countDown();
+        });
+        releaser.start();
+        assertThat(claim(TEXT, 5_000)).contains("@startuml\n@enduml");
+        releaser.join();
+
+        assertThat(prefetchContext.get().getPriority()).isEqualTo(Priority.BACKGROUND);
+        verify(callScheduler).promote(prefetchContext.get(), Priority.INTERACTIVE);
+        verify(geminiService, times(1)).generateCahierDeCharge(TEXT);
+        assertThat(service.getStats())
+                .containsEntry("joinedInFlight", 1L)
+                .containsEntry("promoted", 1L)
+                .containsEntry("hitRate", 1.0);
+    }
+
+    @Test
+    void prefetchOutlivesACallerThatTimesOut() throws InterruptedException {
+        service.prefetch(TEXT);
+        awaitStarted();
+
+        assertThat(claim(TEXT, 20)).isEmpty();
+        assertThat(service.getStats())
+                .containsEntry("pending", 1)
+                .containsEntry("misses", 1L)
+                .containsEntry("wasted", 0L);
+
+        release.countDown();
+        assertThat(claim(TEXT, 5_000)).contains("@startuml\n@enduml");
+        verify(geminiService, times(1)).generateCahierDeCharge(TEXT);
+        verify(callScheduler, times(2)).promote(eq(prefetchContext.get()), any());
+    }
+
+    @Test
+    void expiredPrefetchCountsAsWastedAndAsAMiss() throws InterruptedException {
+        ReflectionTestUtils.setField(service, "ttlSeconds", 0L);
+        release.countDown();
+        service.prefetch(TEXT);
+        awaitIdle();
+
+        assertThat(claim(TEXT, 1_000)).isEmpty();
+        assertThat(service.getStats())
+                .containsEntry("pending", 0)
+                .containsEntry("wasted", 1L)
+                .containsEntry("misses", 1L)
+                .containsEntry("hitRate", 0.0);
+    }
+
+    private Optional<String> claim(String text, long deadlineMillis) {
+        GenerationContext caller = new GenerationContext("client", Priority.INTERACTIVE,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+        return GenerationContext.callWith(caller, () -> service.claim(text));
+    }
+
+    private void awaitStarted() throws InterruptedException {
+        for (int i = 0; i < 500 && prefetchContext.get() == null; i++) Thread.sleep(10);
+        assertThat(prefetchContext.get()).isNotNull();
+    }
+
+    // The executor is single-threaded: once a later task has run, the prefetch has completed
+    private void awaitIdle() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        executor.execute(idle::countDown);
+        assertThat(idle.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
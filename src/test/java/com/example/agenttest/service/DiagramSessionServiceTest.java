@@ -0,0 +1,58 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.session.DiagramPatchOperation.Op;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static com.example.agenttest.service.DiagramModelTest.model;
+import static com.example.agenttest.service.DiagramModelTest.op;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DiagramSessionServiceTest {
+
+    private DiagramSessionService sessionService;
+
+    @BeforeEach
+    void setUp() {
+        sessionService = new DiagramSessionService(new PlantUMLGeneratorService());
+        ReflectionTestUtils.setField(sessionService, "ttlMinutes", 30L);
+        ReflectionTestUtils.setField(sessionService, "maxSessions", 10);
+    }
+
+    @Test
+    void failedPatchLeavesSessionUnchanged() {
+        String sessionId = sessionService.createSession(model("A", "B"));
+
+        assertThatThrownBy(() -> sessionService.applyPatch(sessionId, List.of(
+                op(Op.RENAME_CLASS, "A", o -> o.setNewName("Renamed")),
+                op(Op.REMOVE_CLASS, "Missing", o -> { }))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("operation 2")
+                .hasMessageContaining("no operation was applied");
+
+        assertThat(sessionService.getModel(sessionId).getClasses()).extracting(ClassDetail::getName).containsExactly("A", "B");
+    }
+
+    @Test
+    void successfulPatchIsApplied() {
+        String sessionId = sessionService.createSession(model("A", "B"));
+        String source = sessionService.applyPatch(sessionId, List.of(
+                op(Op.RENAME_CLASS, "A", o -> o.setNewName("Renamed")),
+                op(Op.REMOVE_CLASS, "B", o -> { })));
+
+        assertThat(source).contains("\"Renamed\"").doesNotContain("\"B\"");
+        assertThat(sessionService.getModel(sessionId).getClasses()).extracting(ClassDetail::getName).containsExactly("Renamed");
+    }
+
+    @Test
+    void returnedModelIsACopy() {
+        String sessionId = sessionService.createSession(model("A"));
+        sessionService.getModel(sessionId).getClasses().get(0).setName("Changed");
+        assertThat(sessionService.getModel(sessionId).getClasses()).extracting(ClassDetail::getName).containsExactly("A");
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GeminiCallSchedulerTest {
+
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private GeminiCallScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new GeminiCallScheduler(new DeadlineService());
+        ReflectionTestUtils.setField(scheduler, "clientWeightsConfig", "");
+    }
+
+    @AfterEach
+    void tearDown() {
+        gates.values().forEach(CountDownLatch::countDown);
+        callers.shutdownNow();
+    }
+
+    @Test
+    void interactiveCallsOvertakeQueuedBulkCalls() {
+        configure(1, 0);
+        call("blocker", "c", Priority.BACKGROUND, 1);
+        awaitStarted("blocker");
+        call("bulk", "c", Priority.BULK, 1);
+        call("background", "c", Priority.BACKGROUND, 1);
+        awaitQueued(2);
+        call("interactive", "c", Priority.INTERACTIVE, 1);
+        awaitQueued(3);
+
+        finishInOrder("blocker", 4);
+        assertThat(started).containsExactly("blocker", "interactive", "bulk", "background");
+    }
+
+    @Test
+    void reservedSlotsAreOnlyUsedByInteractiveCalls() {
+        configure(2, 1);
+        call("bulk-1", "c", Priority.BULK, 1);
+        awaitStarted("bulk-1");
+        call("bulk-2", "c", Priority.BULK, 1);
+        awaitQueued(1);
+        call("interactive", "c", Priority.INTERACTIVE, 1);
+
+        awaitStarted("interactive");
+        assertThat(started).containsExactly("bulk-1", "interactive");
+        assertThat(queued(Priority.BULK)).isEqualTo(1);
+    }
+
+    @Test
+    void clientsShareSlotsFairlyWithinAPriority() {
+        configure(1, 0);
+        call("blocker", "x", Priority.BULK, 1);
+        awaitStarted("blocker");
+        for (int i = 1; i <= 4; i++) {
+            call("a" + i, "a", Priority.BULK, 1);
+            awaitQueued(i);
+        }
+        call("b1", "b", Priority.BULK, 1);
+        awaitQueued(5);
+
+        finishInOrder("blocker", 6);
+        // The newcomer does not wait behind the whole backlog of client a
+        assertThat(started).containsExactly("blocker", "a1", "b1", "a2", "a3", "a4");
+    }
+
+    @Test
+    void interactiveTrafficDoesNotDelayNewBulkClients() {
+        configure(1, 0);
+        call("blocker", "i", Priority.INTERACTIVE, 1);
+        awaitStarted("blocker");
+        for (int i = 1; i <= 4; i++) {
+            call("a" + i, "a", Priority.BULK, 10);
+            awaitQueued(i);
+        }
+        call("big", "j", Priority.INTERACTIVE, 1_000_000);
+        awaitQueued(5);
+        release("blocker");
+        awaitStarted("big");
+
+        call("b1", "b", Priority.BULK, 10);
+        awaitQueued(5);
+        finishInOrder("big", 7);
+        assertThat(started).containsExactly("blocker", "big", "a1", "b1", "a2", "a3", "a4");
+    }
+
+    @Test
+    void promotedCallsMoveAheadOfBulkCalls() {
+        configure(1, 0);
+        GenerationContext prefetch = new GenerationContext("p", Priority.BACKGROUND, GenerationContext.NO_DEADLINE);
+        call("blocker", "c", Priority.BULK, 1);
+        awaitStarted("blocker");
+        call("prefetch", prefetch, 1);
+        call("bulk", "c", Priority.BULK, 1);
+        awaitQueued(2);
+
+        assertThat(scheduler.promote(prefetch, Priority.INTERACTIVE)).isTrue();
+        assertThat(queued(Priority.INTERACTIVE)).isEqualTo(1);
+        finishInOrder("blocker", 3);
+        assertThat(started).containsExactly("blocker", "prefetch", "bulk");
+    }
+
+    @Test
+    void callsOfAPromotedContextQueueAtTheRaisedPriority() {
+        configure(1, 0);
+        GenerationContext prefetch = new GenerationContext("p", Priority.BACKGROUND, GenerationContext.NO_DEADLINE);
+        assertThat(scheduler.promote(prefetch, Priority.INTERACTIVE)).isFalse();
+        call("blocker", "c", Priority.BULK, 1);
+        awaitStarted("blocker");
+        call("prefetch", prefetch, 1);
+        awaitQueued(1);
+
+        assertThat(queued(Priority.INTERACTIVE)).isEqualTo(1);
+    }
+
+    private void configure(int maxConcurrent, int reservedInteractive) {
+        ReflectionTestUtils.setField(scheduler, "maxConcurrent", maxConcurrent);
+        ReflectionTestUtils.setField(scheduler, "reservedInteractive", reservedInteractive);
+        scheduler.init();
+    }
+
+    // Starts a call on its own thread; once dispatched it blocks until released
+    private void call(String label, String clientId, Priority priority, long cost) {
+        CountDownLatch gate = new CountDownLatch(1);
+        gates.put(label, gate);
+        callers.execute(() -> scheduler.execute(clientId, priority, cost, () -> {
+            started.add(label);
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+    }
+
+    // Same, for a call made under the given context at its priority
+    private void call(String label, GenerationContext context, long cost) {
+        CountDownLatch gate = new CountDownLatch(1);
+        gates.put(label, gate);
+        callers.execute(() -> GenerationContext.callWith(context,
+                () -> scheduler.execute(context.getClientId(), context.getPriority(), cost, () -> {
+                    started.add(label);
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                })));
+    }
+
+    // Releases the running call, then each call as it starts, until the given number of calls has started
+    private void finishInOrder(String first, int total) {
+        release(first);
+        for (int i = started.indexOf(first) + 1; i < total; i++) {
+            int index = i;
+            await(() -> started.size() > index);
+            release(started.get(index));
+        }
+    }
+
+    private void release(String label) {
+        gates.get(label).countDown();
+    }
+
+    private void awaitStarted(String label) {
+        await(() -> started.contains(label));
+    }
+
+    private void awaitQueued(int total) {
+        await(() -> queued(Priority.INTERACTIVE) + queued(Priority.BULK) + queued(Priority.BACKGROUND) == total);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int queued(Priority priority) {
+        Map<String, Object> queued = (Map<String, Object>) scheduler.getStats().get("queued");
+        return (Integer) queued.get(priority.name().toLowerCase());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Condition not met within 5 s");
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.CircuitOpenException;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import com.example.agenttest.service.GeminiCircuitBreaker.State;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeminiCircuitBreakerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private GeminiCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        breaker = new GeminiCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "windowSize", 4);
+        ReflectionTestUtils.setField(breaker, "minimumCalls", 4);
+        ReflectionTestUtils.setField(breaker, "failureRateThreshold", 50);
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 10_000L);
+        ReflectionTestUtils.setField(breaker, "slowCallRateThreshold", 100);
+        ReflectionTestUtils.setField(breaker, "openDurationMillis", 50L);
+        ReflectionTestUtils.setField(breaker, "halfOpenProbes", 2);
+        breaker.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        fail();
+        fail();
+        fail();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void opensAtFailureRateThresholdAndRejectsCalls() {
+        succeed();
+        succeed();
+        fail();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        fail();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+
+        assertThatThrownBy(this::succeed).isInstanceOf(CircuitOpenException.class);
+        assertThatThrownBy(breaker::checkNotOpen).isInstanceOf(CircuitOpenException.class);
+    }
+
+    @Test
+    void opensOnSlowCalls() {
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 0L);
+        for (int i = 0; i < 4; i++) succeed();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    void halfOpenProbesCloseTheCircuit() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+
+        succeed();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        succeed();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getStats()).containsEntry("windowCalls", 0);
+    }
+
+    @Test
+    void failedProbeReopensTheCircuit() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+
+        fail();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThatThrownBy(this::succeed).isInstanceOf(CircuitOpenException.class);
+    }
+
+    @Test
+    void slowProbeReopensTheCircuit() throws InterruptedException {
+        open();
+        Thread.sleep(60);
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 0L);
+
+        succeed();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    void callsAdmittedBeforeTheCircuitOpenedDoNotActAsProbes() throws Exception {
+        CountDownLatch releaseOld = new CountDownLatch(1);
+        CountDownLatch releaseProbe = new CountDownLatch(1);
+        CompletableFuture<String> old1 = blockedCall(releaseOld);
+        CompletableFuture<String> old2 = blockedCall(releaseOld);
+        assertProbesInFlight(0); // both admitted while closed
+
+        open();
+        Thread.sleep(60);
+        CompletableFuture<String> probe = blockedCall(releaseProbe);
+        assertProbesInFlight(1);
+
+        releaseOld.countDown();
+        assertThat(old1.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+        assertThat(old2.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(ReflectionTestUtils.getField(breaker, "probesInFlight")).isEqualTo(1);
+        assertThat(ReflectionTestUtils.getField(breaker, "probesSucceeded")).isEqualTo(0);
+
+        releaseProbe.countDown();
+        probe.get(5, TimeUnit.SECONDS);
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        succeed();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void callsCutByTheDeadlineAfterSlowCallMillisCountAsSlow() {
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 20L);
+        for (int i = 0; i < 4; i++) abandonAfter(10, 30);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    void callsCutByTheDeadlineEarlyAreNotRecorded() {
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 1_000L);
+        for (int i = 0; i < 4; i++) abandonAfter(5, 10);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getStats()).containsEntry("windowCalls", 0);
+    }
+
+    // A call whose request deadline is deadlineMillis away, failing (like a read timeout) after runMillis
+    private void abandonAfter(long deadlineMillis, long runMillis) {
+        GenerationContext context = new GenerationContext("test", Priority.INTERACTIVE,
+                System.nanoTime() + deadlineMillis * 1_000_000);
+        assertThatThrownBy(() -> GenerationContext.callWith(context, () -> breaker.execute(() -> {
+            try {
+                Thread.sleep(runMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Read timed out");
+        }))).isInstanceOf(IllegalStateException.class);
+    }
+
+    private CompletableFuture<String> blockedCall(CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> breaker.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "ok";
+        }), executor);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return result;
+    }
+
+    private void assertProbesInFlight(int expected) {
+        assertThat(ReflectionTestUtils.getField(breaker, "probesInFlight")).isEqualTo(expected);
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) fail();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    private void succeed() {
+        breaker.execute(() -> "ok");
+    }
+
+    private void fail() {
+        assertThatThrownBy(() -> breaker.execute(() -> {
+            throw new IllegalStateException("upstream error");
+        })).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.context.GenerationContext;
+import com.example.agenttest.exception.DeadlineExceededException;
+import com.example.agenttest.service.GeminiCallScheduler.Priority;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeminiModelRouterTest {
+
+    private static final String ROUTES = "flash-lite:3000:100,flash:0:30000";
+
+    @Test
+    void routesBySizeToTheFirstEligibleModel() {
+        GeminiModelRouter router = router(new MockEnvironment());
+        assertThat(router.route("diagram", 1000)).isEqualTo("flash-lite");
+        assertThat(router.route("diagram", 5000)).isEqualTo("flash");
+    }
+
+    @Test
+    void endpointRoutesOverrideTheDefault() {
+        GeminiModelRouter router = router(new MockEnvironment().withProperty("gemini.routing.cdc.models", "pro"));
+        assertThat(router.route("cdc", 10)).isEqualTo("pro");
+        assertThat(router.route("diagram", 10)).isEqualTo("flash-lite");
+    }
+
+    @Test
+    void malformedRoutesFailAtStartup() {
+        assertThatThrownBy(() -> router(new MockEnvironment().withProperty("gemini.routing.diagram.models", "flash:abc")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("gemini.routing.diagram.models");
+        assertThatThrownBy(() -> router(new MockEnvironment().withProperty("gemini.routing.cdc.models", "flash:0:100:extra")))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void callsCutByTheDeadlineCountTowardsLatency() {
+        GeminiModelRouter router = router(new MockEnvironment());
+        GenerationContext expiring = new GenerationContext("client", Priority.INTERACTIVE, System.nanoTime() + 150_000_000L);
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> GenerationContext.callWith(expiring, () -> router.execute("diagram", "flash-lite", () -> {
+                sleep(200);
+                throw new DeadlineExceededException("gemini-call");
+            }))).isInstanceOf(DeadlineExceededException.class);
+        }
+
+        // p90 of the lower bounds exceeds the 100 ms SLO, and no error was counted
+        assertThat(router.route("diagram", 10)).isEqualTo("flash");
+        Map<?, ?> models = (Map<?, ?>) ((Map<?, ?>) router.getStats().get("models")).get("diagram");
+        assertThat(((Map<?, ?>) models.get("flash-lite")).get("errors")).isEqualTo(0L);
+    }
+
+    @Test
+    void slowCallsOnOneEndpointDoNotRerouteTheOthers() {
+        GeminiModelRouter router = router(new MockEnvironment());
+        for (int i = 0; i < 2; i++) {
+            router.execute("combined", "flash-lite", () -> {
+                sleep(150);
+                return "ok";
+            });
+        }
+
+        assertThat(router.route("combined", 10)).isEqualTo("flash");
+        assertThat(router.route("diagram", 10)).isEqualTo("flash-lite");
+        assertThat(router.route("cdc", 10)).isEqualTo("flash-lite");
+    }
+
+    private static GeminiModelRouter router(MockEnvironment environment) {
+        GeminiModelRouter router = new GeminiModelRouter(environment);
+        ReflectionTestUtils.setField(router, "defaultModel", "default");
+        ReflectionTestUtils.setField(router, "defaultRoutes", ROUTES);
+        ReflectionTestUtils.setField(router, "windowSeconds", 300L);
+        ReflectionTestUtils.setField(router, "minSamples", 2);
+        ReflectionTestUtils.setField(router, "maxErrorRate", 0.5);
+        router.init();
+        return router;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
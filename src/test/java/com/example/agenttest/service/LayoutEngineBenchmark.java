@@ -0,0 +1,113 @@
+package com.example.agenttest.service;
+
+import com.example.agenttest.dto.gemini.AttributeDetail;
+import com.example.agenttest.dto.gemini.ClassDetail;
+import com.example.agenttest.dto.gemini.GeminiResponse;
+import com.example.agenttest.dto.gemini.MethodDetail;
+import com.example.agenttest.dto.gemini.RelationshipDetail;
+import com.example.agenttest.service.DiagramRenderService.LayoutEngine;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Smetana vs dot render times for synthetic class diagrams of increasing size.
+ * <p>
+ * Not part of the regular test run (the class name does not match the surefire includes). Run with:
+ * <pre>
+ * mvn -B test -Dtest=LayoutEngineBenchmark
+ * mvn -B test -Dtest=LayoutEngineBenchmark -Dbenchmark.sizes=10,40,100,200 -Dbenchmark.iterations=10
+ * </pre>
+ * Models are generated from a fixed seed, so runs on the same machine are comparable. The dot column
+ * is skipped when Graphviz is not installed.
+ */
+class LayoutEngineBenchmark {
+
+    private static final int WARMUP = 3;
+
+    @Test
+    void compareLayoutEngines() throws IOException {
+        int[] sizes = Arrays.stream(System.getProperty("benchmark.sizes", "10,40,100").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        int iterations = Integer.getInteger("benchmark.iterations", 5);
+
+        DiagramRenderService renderService = new DiagramRenderService(new DeadlineService());
+        ReflectionTestUtils.setField(renderService, "configuredEngine", "auto");
+        ReflectionTestUtils.setField(renderService, "smetanaMaxClasses", 40);
+        ReflectionTestUtils.setField(renderService, "dotWorkers", 1);
+        renderService.init();
+        boolean dotAvailable = (boolean) renderService.getRenderStats().get("dotAvailable");
+        PlantUMLGeneratorService generator = new PlantUMLGeneratorService();
+
+        System.out.printf("%n%-8s %-8s %12s %12s %12s%n", "classes", "engine", "median ms", "min ms", "svg KB");
+        for (int size : sizes) {
+            String source = generator.generatePlantUML(syntheticModel(size, 42L));
+            for (LayoutEngine engine : LayoutEngine.values()) {
+                if (engine == LayoutEngine.DOT && !dotAvailable) {
+                    System.out.printf("%-8d %-8s %12s%n", size, engine, "n/a (no dot)");
+                    continue;
+                }
+                for (int i = 0; i < WARMUP; i++) renderService.renderSvg(source, engine);
+                long[] times = new long[iterations];
+                int svgBytes = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    svgBytes = renderService.renderSvg(source, engine).length();
+                    times[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(times);
+                System.out.printf("%-8d %-8s %12.1f %12.1f %12.1f%n", size, engine,
+                        times[iterations / 2] / 1e6, times[0] / 1e6, svgBytes / 1024.0);
+            }
+        }
+    }
+
+    // A spanning tree of associations plus one extra edge per five classes, some inheritance
+    static GeminiResponse syntheticModel(int classCount, long seed) {
+        Random random = new Random(seed);
+        List<ClassDetail> classes = new ArrayList<>();
+        List<RelationshipDetail> relationships = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            ClassDetail classDetail = new ClassDetail();
+            classDetail.setName("Entity" + i);
+            List<AttributeDetail> attributes = new ArrayList<>();
+            for (String name : List.of("id", "name", "createdAt")) {
+                AttributeDetail attr = new AttributeDetail();
+                attr.setVisibility("private");
+                attr.setName(name);
+                attr.setType("String");
+                attributes.add(attr);
+            }
+            classDetail.setAttributes(attributes);
+            MethodDetail method = new MethodDetail();
+            method.setVisibility("public");
+            method.setName("validate");
+            method.setReturnType("boolean");
+            classDetail.setMethods(List.of(method));
+            classes.add(classDetail);
+            if (i > 0) {
+                relationships.add(relationship(i % 7 == 0 ? "Inheritance" : "Association", i, random.nextInt(i)));
+            }
+            if (i > 1 && i % 5 == 0) {
+                relationships.add(relationship("Association", i, random.nextInt(i)));
+            }
+        }
+        GeminiResponse model = new GeminiResponse();
+        model.setClasses(classes);
+        model.setRelationships(relationships);
+        return model;
+    }
+
+    private static RelationshipDetail relationship(String type, int source, int target) {
+        RelationshipDetail rel = new RelationshipDetail();
+        rel.setType(type);
+        rel.setSource("Entity" + source);
+        rel.setTarget("Entity" + target);
+        return rel;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.agenttest.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NearDuplicateServiceTest {
+
+    private NearDuplicateService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new NearDuplicateService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "threshold", 0.90);
+        ReflectionTestUtils.setField(service, "maxEntries", 100);
+        ReflectionTestUtils.setField(service, "maxMegabytesPerKind", 1L);
+    }
+
+    @Test
+    void normalizationIgnoresCaseAccentsAndPunctuation() {
+        assertThat(NearDuplicateService.normalize("  Gérer les COMMANDES, élèves !  "))
+                .isEqualTo("gerer les commandes eleves");
+        assertThat(NearDuplicateService.normalize("Créer--un   compte?")).isEqualTo("creer un compte");
+        assertThat(NearDuplicateService.simHash("Système de réservation."))
+                .isEqualTo(NearDuplicateService.simHash("systeme DE reservation"));
+    }
+
+    @Test
+    void nearIdenticalInputsReuseTheResult() {
+        service.remember("cdc", "Une application de gestion des commandes pour un restaurant", "result");
+        assertThat(service.findSimilar("cdc", "une application de GESTION des commandes pour un restaurant !"))
+                .hasValueSatisfying(r -> {
+                    assertThat(r.value()).isEqualTo("result");
+                    assertThat(r.similarity()).isEqualTo(1.0);
+                });
+        assertThat(service.findSimilar("diagram", "Une application de gestion des commandes pour un restaurant"))
+                .isEmpty();
+    }
+
+    @Test
+    void punctuationOnlyInputsAreNeitherRememberedNorMatched() {
+        service.remember("cdc", "???", "result");
+        assertThat(service.findSimilar("cdc", "!!!")).isEmpty();
+        assertThat(service.findSimilar("cdc", "???")).isEmpty();
+        assertThat(service.getStats())
+                .containsEntry("lookups", 0L)
+                .containsEntry("entries", Map.of());
+    }
+
+    @Test
+    void thresholdMapsToMaxHammingDistance() {
+        assertThat(maxDistanceFor(1.0)).isEqualTo(0);
+        assertThat(maxDistanceFor(0.95)).isEqualTo(3);
+        assertThat(maxDistanceFor(0.90)).isEqualTo(6);
+        assertThat(maxDistanceFor(0.875)).isEqualTo(8);
+        assertThat(maxDistanceFor(0.0)).isEqualTo(SimHashIndex.MAX_DISTANCE);
+        assertThat(maxDistanceFor(1.5)).isEqualTo(0);
+    }
+
+    private int maxDistanceFor(double threshold) {
+        ReflectionTestUtils.setField(service, "threshold", threshold);
+        return service.maxDistance();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.agenttest.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Lookup cost of {@link SimHashIndex} at 100k+ entries for the Hamming distances that common
+ * {@code similarity.threshold} values allow (0.95 = 3 bits, 0.90 = 6 bits, 0.83 = 11 bits).
+ * <p>
+ * Not part of the regular test run (the class name does not match the surefire includes). Run with:
+ * <pre>
+ * mvn -B test -Dtest=SimHashIndexBenchmark
+ * mvn -B test -Dtest=SimHashIndexBenchmark -Dbenchmark.entries=100000,1000000 -Dbenchmark.distances=3,6,11 -Dbenchmark.lookups=2000
+ * </pre>
+ * Signatures are uniformly random from a fixed seed. Hits are stored signatures with {@code distance}
+ * random bits flipped, misses are fresh random signatures.
+ */
+class SimHashIndexBenchmark {
+
+    @Test
+    void lookupCost() {
+        int[] entryCounts = ints(System.getProperty("benchmark.entries", "100000,1000000"));
+        int[] distances = ints(System.getProperty("benchmark.distances", "3,6,11"));
+        int lookups = Integer.getInteger("benchmark.lookups", 2_000);
+
+        System.out.printf("%n%-10s %-9s %14s %14s %12s%n", "entries", "distance", "hit ns/op", "miss ns/op", "build ms");
+        for (int entries : entryCounts) {
+            for (int distance : distances) {
+                SplittableRandom random = new SplittableRandom(42);
+                long[] stored = new long[entries];
+                long buildStart = System.nanoTime();
+                SimHashIndex index = new SimHashIndex(entries, distance, Long.MAX_VALUE);
+                for (int i = 0; i < entries; i++) {
+                    stored[i] = random.nextLong();
+                    index.add(stored[i], "r");
+                }
+                long buildNanos = System.nanoTime() - buildStart;
+
+                long[] hits = new long[lookups];
+                long[] misses = new long[lookups];
+                for (int i = 0; i < lookups; i++) {
+                    hits[i] = flipBits(stored[random.nextInt(entries)], distance, random);
+                    misses[i] = random.nextLong();
+                }
+                measure(index, hits); // warm-up
+                measure(index, misses);
+                double hitNanos = measure(index, hits);
+                double missNanos = measure(index, misses);
+                System.out.printf("%-10d %-9d %14.0f %14.0f %12d%n", entries, distance, hitNanos, missNanos, buildNanos / 1_000_000);
+            }
+        }
+    }
+
+    private static double measure(SimHashIndex index, long[] queries) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (long query : queries) {
+            if (index.findNearest(query) != null) found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found < 0) throw new AssertionError(); // keeps the loop from being optimised away
+        return elapsed / (double) queries.length;
+    }
+
+    private static long flipBits(long signature, int bits, SplittableRandom random) {
+        long result = signature;
+        for (int flipped = 0; flipped < bits; ) {
+            long bit = 1L << random.nextInt(64);
+            if ((result & bit) == (signature & bit)) {
+                result ^= bit;
+                flipped++;
+            }
+        }
+        return result;
+    }
+
+    private static int[] ints(String csv) {
+        return Arrays.stream(csv.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.agenttest.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimHashIndexTest {
+
+    @Test
+    void findsNearestEntryWithinMaxDistance() {
+        SimHashIndex index = new SimHashIndex(10, 3, Long.MAX_VALUE);
+        long signature = 0x0F0F_F0F0_1234_5678L;
+        index.add(signature, "exact");
+        index.add(signature ^ 0b111L, "three-bits");
+
+        assertThat(index.findNearest(signature)).isEqualTo(new SimHashIndex.Match("exact", 0));
+        assertThat(index.findNearest(signature ^ 0b1L)).isEqualTo(new SimHashIndex.Match("exact", 1));
+        // Four bits away from "exact" but one bit from "three-bits"
+        assertThat(index.findNearest(signature ^ 0b1111L)).isEqualTo(new SimHashIndex.Match("three-bits", 1));
+    }
+
+    @Test
+    void ignoresEntriesBeyondMaxDistance() {
+        SimHashIndex index = new SimHashIndex(10, 3, Long.MAX_VALUE);
+        index.add(0L, "zero");
+        assertThat(index.findNearest(0b1111L)).isNull();
+        // Differences spread over every band
+        assertThat(index.findNearest(0x8000_8000_8000_8000L)).isNull();
+    }
+
+    @Test
+    void ringEvictsOldestEntry() {
+        SimHashIndex index = new SimHashIndex(2, 0, Long.MAX_VALUE);
+        index.add(1L, "first");
+        index.add(2L, "second");
+        index.add(3L, "third");
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.findNearest(1L)).isNull();
+        assertThat(index.findNearest(2L)).isEqualTo(new SimHashIndex.Match("second", 0));
+        assertThat(index.findNearest(3L)).isEqualTo(new SimHashIndex.Match("third", 0));
+    }
+
+    @Test
+    void evictionUnlinksEntriesSharingBuckets() {
+        // Only the top band differs: every entry shares the bucket chains of the other bands
+        SimHashIndex index = new SimHashIndex(3, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            index.add((long) i << 60, "v" + i);
+        }
+        assertThat(index.size()).isEqualTo(3);
+        for (int i = 0; i < 7; i++) {
+            assertThat(index.findNearest((long) i << 60)).as("evicted v%d", i).isNull();
+        }
+        for (int i = 7; i < 10; i++) {
+            assertThat(index.findNearest((long) i << 60)).isEqualTo(new SimHashIndex.Match("v" + i, 0));
+        }
+    }
+
+    @Test
+    void evictsOldestEntriesBeyondByteBudget() {
+        String value = "x".repeat(100);
+        long entryBytes = new SimHashIndex(1, 0, Long.MAX_VALUE) {{ add(0L, value); }}.bytes();
+        SimHashIndex index = new SimHashIndex(100, 0, 3 * entryBytes);
+        for (long i = 0; i < 5; i++) {
+            assertThat(index.add(i, value)).isTrue();
+        }
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.bytes()).isEqualTo(3 * entryBytes);
+        assertThat(index.findNearest(1L)).isNull();
+        assertThat(index.findNearest(4L)).isNotNull();
+        assertThat(index.add(5L, "x".repeat(1000))).isFalse();
+    }
+}